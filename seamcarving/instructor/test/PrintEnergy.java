@@ -20,10 +20,11 @@ public class PrintEnergy {
         
         System.out.printf("Printing energy calculated for each pixel.\n");        
 
+        double[] energyMap = sc.energyMap();
         for (int j = 0; j < sc.height(); j++)
         {
             for (int i = 0; i < sc.width(); i++)
-                System.out.printf("%9.0f ", sc.energy(i, j));
+                System.out.printf("%9.0f ", energyMap[j * sc.width() + i]);
 
             System.out.println();
         }
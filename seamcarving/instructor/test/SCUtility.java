@@ -20,10 +20,12 @@ public class SCUtility {
 
     public static double[][] toEnergyMatrix(SeamCarver sc)
     {
-        double[][] returnDouble = new double[sc.width()][sc.height()];
-        for (int i = 0; i < sc.width(); i++)
+        int width = sc.width();
+        double[] energyMap = sc.energyMap();
+        double[][] returnDouble = new double[width][sc.height()];
+        for (int i = 0; i < width; i++)
             for (int j = 0; j < sc.height(); j++)
-                returnDouble[i][j] = sc.energy(i, j);
+                returnDouble[i][j] = energyMap[j * width + i];
     
         return returnDouble;        
     }
@@ -31,13 +33,12 @@ public class SCUtility {
     // displays grayvalues as energy (converts to picture, calls show)
     public static void showEnergy(SeamCarver sc)
     {
-        doubleToPicture(toEnergyMatrix(sc)).show();
+        toEnergyPicture(sc).show();
     }
 
     public static Picture toEnergyPicture(SeamCarver sc)
     {
-        double[][] energyMatrix = toEnergyMatrix(sc);
-        return doubleToPicture(energyMatrix);
+        return doubleToPicture(sc.energyMap(), sc.width(), sc.height());
     }
 
     // converts a double matrix of values into a normalized picture
@@ -71,6 +72,30 @@ public class SCUtility {
         return p;
     }
 
+    // converts a row-major array of values, as from SeamCarver.energyMap(),
+    // into a normalized picture
+    public static Picture doubleToPicture(double[] grayValues, int width, int height)
+    {
+        Picture p = new Picture(width, height);
+
+        double maxVal = 0;
+        for (double value : grayValues)
+            if (value > maxVal)
+                maxVal = value;
+
+        if (maxVal == 0)
+            return p; //return black picture
+
+        for (int j = 0; j < height; j++)
+            for (int i = 0; i < width; i++)
+            {
+                float normalizedGrayValue = (float) grayValues[j * width + i] / (float) maxVal;
+                p.set(i, j, new Color(normalizedGrayValue, normalizedGrayValue, normalizedGrayValue));
+            }
+
+        return p;
+    }
+
 
     // This method is useful for debugging seams. It overlays red
     // pixels over the calculate seam. Due to the lack of a copy
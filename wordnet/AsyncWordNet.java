@@ -0,0 +1,251 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac AsyncWordNet.java
+ * Dependencies: WordNet.java
+ *
+ * Asynchronous WordNet queries that coalesce identical concurrent requests
+ * and shed load when too many are pending.
+ *
+ ************************************************************************/
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A <code>CompletableFuture</code> facade over a <code>WordNet</code>.
+ * <p>
+ * Identical queries that are in flight at the same time are coalesced: the
+ * first starts a computation and the others join it, so a burst of requests
+ * for one pair of nouns costs one search. Every caller, the first included,
+ * gets a future of its own that completes with the shared computation, so
+ * one caller cancelling or completing its future affects no other. A query
+ * is in flight from when it is submitted until its result is ready, so
+ * results are never served stale after a computation finishes.
+ * <code>distance()</code> is symmetric, so <code>distance(a, b)</code> and
+ * <code>distance(b, a)</code> share a computation; <code>sap()</code> queries
+ * are only coalesced with the same ordered pair, since ties between
+ * ancestors may be broken differently.
+ * <p>
+ * At most <em>maxPending</em> distinct computations may be queued or running
+ * at once. Past that, new queries are not queued but return futures already
+ * failed with a <code>RejectedExecutionException</code>, so that callers
+ * see backpressure immediately instead of waiting in an unbounded queue.
+ * Queries that join an in-flight computation are never rejected for
+ * backpressure, because a computation is only put in flight once it has
+ * been admitted; they fail only if that computation does.
+ * <p>
+ * The WordNet must not be modified while this facade is in use.
+ *
+ * @author William Schwartz
+ */
+public class AsyncWordNet implements AutoCloseable {
+	private final WordNet wordnet;
+	private final Executor executor;
+	private final ExecutorService owned; // Shut down by close(), if not null.
+	private final Semaphore pending;
+	private final ConcurrentHashMap<Query, CompletableFuture<Object>> inFlight =
+		new ConcurrentHashMap<Query, CompletableFuture<Object>>();
+	private final LongAdder computed = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Run queries on the given executor, with at most maxPending distinct
+	 * computations outstanding.
+	 */
+	public AsyncWordNet(WordNet wordnet, Executor executor, int maxPending) {
+		this(wordnet, executor, null, maxPending);
+	}
+
+	private AsyncWordNet(WordNet wordnet, Executor executor,
+						 ExecutorService owned, int maxPending) {
+		if (maxPending < 1)
+			throw new IllegalArgumentException("maxPending must be positive");
+		this.wordnet = wordnet;
+		this.executor = executor;
+		this.owned = owned;
+		this.pending = new Semaphore(maxPending);
+	}
+
+	/**
+	 * Run queries on a new virtual thread per computation where the Java
+	 * runtime has virtual threads (Java 21 and later), or otherwise on a new
+	 * pool of one thread per core. The executor is shut down by
+	 * <code>close()</code>. Queries borrow their search arrays from pools
+	 * shared by all threads, so a new thread per computation does not mean
+	 * new arrays the size of the graph per computation.
+	 */
+	public static AsyncWordNet create(WordNet wordnet, int maxPending) {
+		ExecutorService executor;
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			executor = (ExecutorService) m.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			executor = Executors.newFixedThreadPool(cores);
+		}
+		return new AsyncWordNet(wordnet, executor, executor, maxPending);
+	}
+
+	/**
+	 * The future distance between two nouns, as by
+	 * <code>WordNet.distance()</code>. Fails with an
+	 * <code>IllegalArgumentException</code> if either is not a noun.
+	 */
+	public CompletableFuture<Integer> distance(final String nounA,
+											   final String nounB) {
+		boolean swap = nounA.compareTo(nounB) > 0;
+		Query q = new Query(true, swap ? nounB : nounA, swap ? nounA : nounB);
+		return submit(q, new Computation() {
+			public Object compute() { return wordnet.distance(nounA, nounB); }
+		});
+	}
+
+	/**
+	 * The future shortest common ancestor of two nouns, as by
+	 * <code>WordNet.sap()</code>. Fails with an
+	 * <code>IllegalArgumentException</code> if either is not a noun.
+	 */
+	public CompletableFuture<String> sap(final String nounA,
+										 final String nounB) {
+		return submit(new Query(false, nounA, nounB), new Computation() {
+			public Object compute() { return wordnet.sap(nounA, nounB); }
+		});
+	}
+
+	// Join the in-flight computation of q, or start c as its computation if
+	// there is room for another.
+	private <T> CompletableFuture<T> submit(final Query q,
+											final Computation c) {
+		CompletableFuture<Object> existing = inFlight.get(q);
+		if (existing != null) {
+			coalesced.increment();
+			return view(existing);
+		}
+		// Take a permit before putting q in flight, so that nothing can join a
+		// computation that is then rejected.
+		if (!pending.tryAcquire()) {
+			rejected.increment();
+			CompletableFuture<T> failed = new CompletableFuture<T>();
+			failed.completeExceptionally(
+				new RejectedExecutionException("Too many pending queries"));
+			return failed;
+		}
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		existing = inFlight.putIfAbsent(q, future);
+		if (existing != null) { // Another caller started q first.
+			pending.release();
+			coalesced.increment();
+			return view(existing);
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					Object result = null;
+					Throwable failure = null;
+					try {
+						result = c.compute();
+					}
+					catch (Throwable t) {
+						failure = t;
+					}
+					finish(q, future, result, failure);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			rejected.increment();
+			finish(q, future, null, e);
+		}
+		return view(future);
+	}
+
+	// A new future that completes as the shared one does, with the same
+	// result or exception, so that a caller can cancel or complete it without
+	// touching the shared one.
+	@SuppressWarnings("unchecked")
+	private static <T> CompletableFuture<T> view(CompletableFuture<Object> shared) {
+		final CompletableFuture<T> view = new CompletableFuture<T>();
+		shared.whenComplete(new BiConsumer<Object, Throwable>() {
+			public void accept(Object result, Throwable failure) {
+				if (failure == null)
+					view.complete((T) result);
+				else
+					view.completeExceptionally(failure);
+			}
+		});
+		return view;
+	}
+
+	// Take q out of flight and release its permit, then complete its future,
+	// so that a query arriving afterwards starts a fresh computation rather
+	// than joining a finished one.
+	private void finish(Query q, CompletableFuture<Object> future,
+						Object result, Throwable failure) {
+		inFlight.remove(q, future);
+		pending.release();
+		if (failure == null) {
+			computed.increment();
+			future.complete(result);
+		}
+		else
+			future.completeExceptionally(failure);
+	}
+
+	// number of computations that have finished successfully
+	public long computed() { return computed.sum(); }
+
+	// number of queries that joined an in-flight computation
+	public long coalesced() { return coalesced.sum(); }
+
+	// number of queries rejected for backpressure
+	public long rejected() { return rejected.sum(); }
+
+	/**
+	 * Shut down the executor if <code>create()</code> made it. Queries already
+	 * submitted still complete.
+	 */
+	public void close() {
+		if (owned != null)
+			owned.shutdown();
+	}
+
+	// The work of one query.
+	private interface Computation {
+		Object compute();
+	}
+
+	// The identity of a query, for coalescing.
+	private static class Query {
+		private final boolean distance; // distance() or sap()?
+		private final String a;
+		private final String b;
+
+		Query(boolean distance, String a, String b) {
+			this.distance = distance;
+			this.a = a;
+			this.b = b;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Query))
+				return false;
+			Query that = (Query) other;
+			return distance == that.distance && a.equals(that.a)
+				&& b.equals(that.b);
+		}
+
+		public int hashCode() {
+			return 31 * (31 * a.hashCode() + b.hashCode()) + (distance ? 1 : 0);
+		}
+	}
+}
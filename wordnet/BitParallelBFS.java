@@ -0,0 +1,166 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac BitParallelBFS.java
+ * Dependencies: Digraph.java
+ *
+ * Run breadth first search from up to 64 sets of sources at once, using one
+ * bit per source set in a long mask per vertex. A vertex is expanded once
+ * per distinct level at which new source sets reach it, so at most 64 times:
+ * O(E + V) time for the whole batch when the sets reach each vertex at the
+ * same distance, and no worse than one search per set when they do not.
+ *
+ ************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * Bit-parallel, level-synchronous BFS from up to <code>WIDTH</code> source
+ * sets. Bit <em>i</em> of a vertex's mask means source set <em>i</em> has
+ * reached the vertex. Each level's frontier is expanded once for all source
+ * sets together, so edges are relaxed once per level instead of once per
+ * source set.
+ * <p>
+ * The result is a list of <em>events</em>: event <em>e</em> says that the
+ * source sets in <code>mask(e)</code> first reached <code>vertex(e)</code>
+ * at distance <code>level(e)</code>. A vertex has one event per distinct
+ * distance at which some source set first reaches it. Events are in
+ * nondecreasing order of level.
+ *
+ * @author William Schwartz
+ */
+class BitParallelBFS {
+	/** Maximum number of source sets per traversal. */
+	public static final int WIDTH = 64;
+	private int[] vertex = new int[16];
+	private int[] level = new int[16];
+	private long[] mask = new long[16];
+	private int events;
+	private int visited;  // frontier vertices expanded
+	private int relaxed;  // edges examined
+
+	/**
+	 * Reusable per-vertex mask arrays, so that a traversal need not allocate
+	 * or clear arrays the size of the graph. A traversal leaves them zeroed,
+	 * and checks its sources before touching them.
+	 */
+	public static class Masks {
+		private final long[] seen;  // seen[v] = sets that have reached v
+		private final long[] front; // front[v] = sets at v in this level
+		private final long[] next;  // next[v] = sets reaching v next level
+
+		public Masks(int size) {
+			seen = new long[size];
+			front = new long[size];
+			next = new long[size];
+		}
+
+		// For testing that these arrays are an appropriate size.
+		public int size() { return seen.length; }
+	}
+
+	/**
+	 * Run BFS on G from the source sets <code>sets[from]</code> up to but not
+	 * including <code>sets[to]</code>; source set <code>sets[from + i]</code>
+	 * gets bit <em>i</em>. At most <code>WIDTH</code> sets at a time.
+	 *
+	 * @throws java.lang.IndexOutOfBoundsException if a source is not a vertex
+	 * of G
+	 */
+	public BitParallelBFS(Digraph G, int[][] sets, int from, int to, Masks m) {
+		if (to - from > WIDTH)
+			throw new IllegalArgumentException("More than " + WIDTH + " sets");
+		assert m.size() == G.V();
+		for (int i = from; i < to; i++)
+			for (int s : sets[i])
+				if (s < 0 || s >= G.V())
+					throw new IndexOutOfBoundsException("Vertex " + s);
+		long[] seen = m.seen, front = m.front, next = m.next;
+		int[] frontier = new int[16];
+		int size = 0;
+		for (int i = from; i < to; i++) {
+			long bit = 1L << (i - from);
+			for (int s : sets[i]) {
+				if (seen[s] == 0)
+					frontier = push(frontier, size++, s);
+				seen[s] |= bit;
+				front[s] |= bit;
+			}
+		}
+		for (int i = 0; i < size; i++)
+			record(frontier[i], 0, front[frontier[i]]);
+
+		int[] reached = new int[16];
+		for (int d = 1; size > 0; d++) {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				int v = frontier[i];
+				long bits = front[v];
+				front[v] = 0;
+				visited++;
+				for (int w : G.adj(v)) {
+					relaxed++;
+					long fresh = bits & ~seen[w];
+					if (fresh != 0) {
+						if (next[w] == 0)
+							reached = push(reached, n++, w);
+						seen[w] |= fresh;
+						next[w] |= fresh;
+					}
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				int w = reached[i];
+				record(w, d, next[w]);
+				front[w] = next[w];
+				next[w] = 0;
+			}
+			int[] swap = frontier;
+			frontier = reached;
+			reached = swap;
+			size = n;
+		}
+		// Every vertex with a seen bit has an event, so clear through those.
+		for (int e = 0; e < events; e++)
+			seen[vertex[e]] = 0;
+	}
+
+	// Set a[i] = x, growing a if needed.
+	private static int[] push(int[] a, int i, int x) {
+		if (i == a.length)
+			a = Arrays.copyOf(a, 2 * i);
+		a[i] = x;
+		return a;
+	}
+
+	// Append the event (v, d, bits).
+	private void record(int v, int d, long bits) {
+		if (events == vertex.length) {
+			vertex = Arrays.copyOf(vertex, 2 * events);
+			level = Arrays.copyOf(level, 2 * events);
+			mask = Arrays.copyOf(mask, 2 * events);
+		}
+		vertex[events] = v;
+		level[events] = d;
+		mask[events] = bits;
+		events++;
+	}
+
+	// number of events
+	public int events() { return events; }
+
+	// the vertex of event e
+	public int vertex(int e) { return vertex[e]; }
+
+	// the distance from each of event e's source sets to its vertex
+	public int level(int e) { return level[e]; }
+
+	// the source sets that first reach event e's vertex at its level
+	public long mask(int e) { return mask[e]; }
+
+	// number of frontier vertices expanded, counting each vertex once per
+	// level at which it is on the frontier
+	public int visited() { return visited; }
+
+	// number of edges examined
+	public int relaxed() { return relaxed; }
+}
@@ -1,17 +1,20 @@
 /*************************************************************************
  * Compilation:  javac CachingBFS.java
  * Execution:    java CachingBFS V E
- * Dependencies: Digraph.java Queue.java Stack.java
+ * Dependencies: Digraph.java MappedDigraph.java Queue.java Stack.java
  *
  * Run breadth first search on a digraph. Runs in O(E + V) time. Supports
  * caching of its main data strucutres to avoid reallocation when running BFS on
- * the same graph multiple times.
+ * the same graph multiple times. Also runs on a MappedDigraph, keeping its
+ * state in a hash table sized by the search rather than arrays sized by the
+ * graph.
  *
  * Based on BreadthFirstDirectedPaths by Kevin Wayne and Robert Sedgwick of
  * Princeton University. The main BFS algorithms are theirs. The idea for the
  * cache comes from their assignment instructions, but I built it.
  *************************************************************************/
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 class CachingBFS {
@@ -19,6 +22,8 @@ class CachingBFS {
 	private boolean[] marked;  // marked[v] = is there an s->v path?
 	private int[] edgeTo;      // edgeTo[v] = last edge on shortest s->v path
 	private int[] distTo;      // distTo[v] = length of shortest s->v path
+	private int visited;       // number of vertices dequeued
+	private int relaxed;       // number of edges examined
 	private final CachedArrays cachedArrays;
 
 	public static class CachedArrays implements Iterable<Integer> {
@@ -26,13 +31,36 @@ class CachingBFS {
 		private final int[] distTo;
 		private final int[] edgeTo;
 		private final Queue<Integer> changed;
+		private final int size;
+		// Sparse caches, for graphs too large for arrays of their size, keep
+		// distTo and edgeTo in a linear-probing hash table instead, keyed by
+		// vertex + 1 so that 0 means an empty slot.
+		private int[] keys;
+		private int[] dists;
+		private int[] edges;
+		private int count;
 
-		public CachedArrays(int size) {
-			marked = new boolean[size];
-			distTo = new int[size];
-			edgeTo = new int[size];
-			for (int v = 0; v < size; v++)
-				distTo[v] = INFINITY;
+		public CachedArrays(int size) { this(size, false); }
+
+		// A cache for graphs of size vertices, with arrays of that size unless
+		// it is sparse.
+		public CachedArrays(int size, boolean sparse) {
+			this.size = size;
+			if (sparse) {
+				marked = null;
+				distTo = null;
+				edgeTo = null;
+				keys = new int[16];
+				dists = new int[16];
+				edges = new int[16];
+			}
+			else {
+				marked = new boolean[size];
+				distTo = new int[size];
+				edgeTo = new int[size];
+				for (int v = 0; v < size; v++)
+					distTo[v] = INFINITY;
+			}
 			changed = new Queue<Integer>();
 		}
 
@@ -40,6 +68,10 @@ class CachingBFS {
 
 		// Clear this cache entry for reuse.
 		public void clear() {
+			if (keys != null) {
+				clearSparse();
+				return;
+			}
 			int i;
 			while (!changed.isEmpty()) {
 				i = changed.dequeue();
@@ -49,8 +81,64 @@ class CachingBFS {
 			}
 		}
 
+		// Empty the hash table. Each key's slot is found before any are
+		// emptied, since emptying a slot breaks the probe sequences through it.
+		private void clearSparse() {
+			if (count > keys.length / 8) {
+				Arrays.fill(keys, 0);
+			}
+			else {
+				int[] slots = new int[count];
+				int n = 0;
+				for (int v : changed)
+					slots[n++] = slot(v);
+				for (int i = 0; i < n; i++)
+					keys[slots[i]] = 0;
+			}
+			count = 0;
+			while (!changed.isEmpty())
+				changed.dequeue();
+		}
+
+		// Index of v's slot in the hash table, or of the empty slot where it
+		// would go.
+		private int slot(int v) {
+			int mask = keys.length - 1;
+			int h = v * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != 0 && keys[i] != v + 1)
+				i = (i + 1) & mask;
+			return i;
+		}
+
+		// Record v in the hash table, which must not already hold it.
+		private void put(int v, int dist, int edge) {
+			if (2 * (count + 1) > keys.length) {
+				int[] oldKeys = keys, oldDists = dists, oldEdges = edges;
+				keys = new int[2 * oldKeys.length];
+				dists = new int[keys.length];
+				edges = new int[keys.length];
+				for (int i = 0; i < oldKeys.length; i++) {
+					if (oldKeys[i] != 0) {
+						int j = slot(oldKeys[i] - 1);
+						keys[j] = oldKeys[i];
+						dists[j] = oldDists[i];
+						edges[j] = oldEdges[i];
+					}
+				}
+			}
+			int i = slot(v);
+			keys[i] = v + 1;
+			dists[i] = dist;
+			edges[i] = edge;
+			count++;
+		}
+
+		// Is this a sparse cache?
+		public boolean sparse() { return keys != null; }
+
 		// For testing that this cache is an appropriate size.
-		public int size() { return marked.length; }
+		public int size() { return size; }
 
 		// Mark that an index in the arrays has changed so it can be cleared
 		// later for reuse.
@@ -75,12 +163,54 @@ class CachingBFS {
 		bfs(G, sources);
 	}
 
+	// array of sources
+	public CachingBFS(Digraph G, int[] sources, CachedArrays c) {
+		cachedArrays = instantiate(c, G.V(), false);
+		bfs(G, sources);
+	}
+
+	// array of sources, searching only to distance maxDepth from them
+	public CachingBFS(Digraph G, int[] sources, int maxDepth, CachedArrays c) {
+		cachedArrays = instantiate(c, G.V(), false);
+		Queue<Integer> q = new Queue<Integer>();
+		for (int s : sources)
+			source(s, q);
+		search(G, q, maxDepth);
+	}
+
+	// array of sources in a mapped digraph; the cache must be sparse
+	public CachingBFS(MappedDigraph G, int[] sources, CachedArrays c) {
+		this(G, sources, INFINITY, c);
+	}
+
+	// array of sources in a mapped digraph, searching only to distance
+	// maxDepth from them; the cache must be sparse
+	public CachingBFS(MappedDigraph G, int[] sources, int maxDepth,
+					  CachedArrays c) {
+		cachedArrays = instantiate(c, G.V(), true);
+		Queue<Integer> q = new Queue<Integer>();
+		for (int s : sources) {
+			if (s < 0 || s >= G.V())
+				throw new IndexOutOfBoundsException("Vertex " + s);
+			if (!hasPathTo(s)) {
+				cachedArrays.put(s, 0, 0);
+				cachedArrays.markChanged(s);
+				q.enqueue(s);
+			}
+		}
+		search(G, q, maxDepth);
+	}
+
 	private CachedArrays instantiate(CachedArrays c, int size) {
+		return instantiate(c, size, false);
+	}
+
+	private CachedArrays instantiate(CachedArrays c, int size, boolean sparse) {
 		CachedArrays cc;
 		if (c == null)
-			cc = new CachedArrays(size);
+			cc = new CachedArrays(size, sparse);
 		else {
-			assert c.size() == size;
+			assert c.size() == size && c.sparse() == sparse;
 			c.clear();
 			cc = c;
 		}
@@ -93,13 +223,48 @@ class CachingBFS {
 	// BFS from single source
 	private void bfs(Digraph G, int s) {
 		Queue<Integer> q = new Queue<Integer>();
+		source(s, q);
+		search(G, q);
+	}
+
+	// BFS from multiple sources
+	private void bfs(Digraph G, Iterable<Integer> sources) {
+		Queue<Integer> q = new Queue<Integer>();
+		for (int s : sources)
+			source(s, q);
+		search(G, q);
+	}
+
+	// BFS from an array of sources
+	private void bfs(Digraph G, int[] sources) {
+		Queue<Integer> q = new Queue<Integer>();
+		for (int s : sources)
+			source(s, q);
+		search(G, q);
+	}
+
+	// Mark s as a source and enqueue it.
+	private void source(int s, Queue<Integer> q) {
 		marked[s] = true;
 		distTo[s] = 0;
 		cachedArrays.markChanged(s);
 		q.enqueue(s);
+	}
+
+	// Run BFS from the enqueued sources.
+	private void search(Digraph G, Queue<Integer> q) {
+		search(G, q, INFINITY);
+	}
+
+	// Run BFS from the enqueued sources, not expanding vertices at maxDepth.
+	private void search(Digraph G, Queue<Integer> q, int maxDepth) {
 		while (!q.isEmpty()) {
 			int v = q.dequeue();
+			visited++;
+			if (distTo[v] >= maxDepth)
+				continue;
 			for (int w : G.adj(v)) {
+				relaxed++;
 				if (!marked[w]) {
 					edgeTo[w] = v;
 					distTo[w] = distTo[v] + 1;
@@ -111,22 +276,23 @@ class CachingBFS {
 		}
 	}
 
-	// BFS from multiple sources
-	private void bfs(Digraph G, Iterable<Integer> sources) {
-		Queue<Integer> q = new Queue<Integer>();
-		for (int s : sources) {
-			marked[s] = true;
-			distTo[s] = 0;
-			q.enqueue(s);
-			cachedArrays.markChanged(s);
-		}
+	// Run BFS in a mapped digraph from the enqueued sources, not expanding
+	// vertices at maxDepth.
+	private void search(MappedDigraph G, Queue<Integer> q, int maxDepth) {
+		int[] adj = new int[16];
 		while (!q.isEmpty()) {
 			int v = q.dequeue();
-			for (int w : G.adj(v)) {
-				if (!marked[w]) {
-					edgeTo[w] = v;
-					distTo[w] = distTo[v] + 1;
-					marked[w] = true;
+			visited++;
+			if (distTo(v) >= maxDepth)
+				continue;
+			int d = distTo(v) + 1;
+			int n = G.outdegree(v);
+			adj = G.adj(v, adj);
+			for (int i = 0; i < n; i++) {
+				relaxed++;
+				int w = adj[i];
+				if (!hasPathTo(w)) {
+					cachedArrays.put(w, d, v);
 					cachedArrays.markChanged(w);
 					q.enqueue(w);
 				}
@@ -135,8 +301,24 @@ class CachingBFS {
 	}
 
 	// length of shortest path from s (or sources) to v
-	public int distTo(int v) { return distTo[v]; }
+	public int distTo(int v) {
+		if (distTo != null)
+			return distTo[v];
+		CachedArrays c = cachedArrays;
+		int i = c.slot(v);
+		return c.keys[i] == 0 ? INFINITY : c.dists[i];
+	}
 
 	// is there a directed path from s (or sources) to v?
-	public boolean hasPathTo(int v) { return marked[v]; }
+	public boolean hasPathTo(int v) {
+		if (marked != null)
+			return marked[v];
+		return cachedArrays.keys[cachedArrays.slot(v)] != 0;
+	}
+
+	// number of vertices the search dequeued
+	public int visited() { return visited; }
+
+	// number of edges the search examined
+	public int relaxed() { return relaxed; }
 }
@@ -0,0 +1,366 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac CsvLoader.java
+ * Dependencies: StringPool.java SynsetFile.java
+ *
+ * Parallel loader for the WordNet synsets and hypernyms CSV files. The file
+ * is memory mapped, cut into chunks on line boundaries, and each chunk is
+ * parsed byte by byte (no regular expressions, no per-line Strings) on its
+ * own thread into primitive arrays.
+ *
+ ************************************************************************/
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Static methods to read the WordNet CSV files using all available cores.
+ * Results are identical to reading the files one line at a time: the synsets
+ * come back indexed by id, and the hypernym edges come back in file order.
+ * <p>
+ * Both methods throw a <code>java.lang.IllegalArgumentException</code> if the
+ * file cannot be read and a <code>java.lang.NumberFormatException</code> if
+ * an id is not an integer.
+ *
+ * @author William Schwartz
+ */
+class CsvLoader {
+	// Chunks are no larger than this so that each fits in one mapping.
+	private static final long MAX_CHUNK = 1 << 26;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private CsvLoader() { }
+
+	/**
+	 * A synsets file's second column, indexed by synset id, and the whole
+	 * lines, glosses and all, to be read lazily.
+	 */
+	static class Synsets {
+		final StringPool synsets;
+		final SynsetFile file;
+
+		Synsets(StringPool synsets, SynsetFile file) {
+			this.synsets = synsets;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Read a synsets file. Returns the second column of each line indexed by
+	 * the id in the first column, and a mapped private copy of the file from
+	 * which the gloss, which is skipped, can be read later. The copy is made
+	 * first and then parsed, so the two agree even if the file changes. The
+	 * ids must be exactly 0 through <em>n</em> - 1 for some <em>n</em>.
+	 */
+	public static Synsets synsets(String file) {
+		Path copy;
+		try {
+			FileChannel channel = FileChannel.open(Paths.get(file),
+												   StandardOpenOption.READ);
+			try {
+				copy = SynsetFile.copy(channel, Paths.get(file), 0,
+									   channel.size());
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Could not read " + file, e);
+		}
+		try {
+			return synsets(copy, file);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Could not read " + file, e);
+		}
+		finally {
+			SynsetFile.delete(copy);
+		}
+	}
+
+	// Parse and map a copy of a synsets file. Errors name the original file.
+	private static Synsets synsets(Path copy, String file) throws IOException {
+		List<SynsetChunk> chunks = load(copy, file,
+			new ChunkFactory<SynsetChunk>() {
+				public SynsetChunk create(FileChannel ch, long start, long end) {
+					return new SynsetChunk(ch, start, end);
+				}
+			});
+		int n = 0;
+		for (SynsetChunk c : chunks)
+			n += c.ids.size();
+		// Lay the synsets out in id order, checking that each id appears once.
+		int[] length = new int[n];
+		long[] lines = new long[n];
+		Arrays.fill(length, -1);
+		for (SynsetChunk c : chunks)
+			for (int i = 0, from = 0; i < c.ids.size(); i++) {
+				int id = c.ids.get(i);
+				if (id >= n || length[id] >= 0)
+					throw new IllegalArgumentException(file + " repeats or "
+													   + "skips synset ids");
+				length[id] = c.ends.get(i) - from;
+				lines[id] = c.lines.get(i);
+				from = c.ends.get(i);
+			}
+		int[] offsets = new int[n + 1];
+		for (int id = 0; id < n; id++)
+			offsets[id + 1] = offsets[id] + length[id];
+		byte[] bytes = new byte[offsets[n]];
+		for (SynsetChunk c : chunks)
+			for (int i = 0, from = 0; i < c.ids.size(); i++) {
+				int id = c.ids.get(i), to = c.ends.get(i);
+				c.bytes.copyTo(from, bytes, offsets[id], to - from);
+				from = to;
+			}
+		SynsetFile lazy = SynsetFile.map(copy, 0, Files.size(copy), lines);
+		return new Synsets(new StringPool(bytes, offsets), lazy);
+	}
+
+	/**
+	 * Read a hypernyms file. Returns its edges flattened into one array, so
+	 * that edge <em>i</em> points from <code>a[2*i]</code> to
+	 * <code>a[2*i+1]</code>. Edges are in the order they appear in the file.
+	 */
+	public static int[] hypernyms(String file) {
+		List<HypernymChunk> chunks = load(Paths.get(file), file,
+			new ChunkFactory<HypernymChunk>() {
+				public HypernymChunk create(FileChannel ch, long start, long end) {
+					return new HypernymChunk(ch, start, end);
+				}
+			});
+		int n = 0;
+		for (HypernymChunk c : chunks)
+			n += c.edges.size();
+		int[] edges = new int[n];
+		n = 0;
+		for (HypernymChunk c : chunks) {
+			c.edges.copyTo(edges, n);
+			n += c.edges.size();
+		}
+		return edges;
+	}
+
+	private interface ChunkFactory<C extends Chunk> {
+		C create(FileChannel channel, long start, long end);
+	}
+
+	// Cut the file at path into chunks, parse them in parallel, and return
+	// them in file order. Errors name the file as given.
+	private static <C extends Chunk> List<C> load(Path path, String file,
+												  ChunkFactory<C> factory) {
+		FileChannel channel = null;
+		ExecutorService pool = null;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			long size = channel.size();
+			long chunk = Math.min(MAX_CHUNK, Math.max(1, size / (4 * THREADS)));
+			List<C> chunks = new ArrayList<C>();
+			for (long start = 0; start < size; start += chunk)
+				chunks.add(factory.create(channel, start,
+										  Math.min(size, start + chunk)));
+			pool = Executors.newFixedThreadPool(THREADS);
+			for (Future<Void> f : pool.invokeAll(chunks))
+				f.get();
+			return chunks;
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Could not read " + file, e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted reading " + file, e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalArgumentException("Could not read " + file,
+											   e.getCause());
+		}
+		finally {
+			if (pool != null)
+				pool.shutdown();
+			try {
+				if (channel != null)
+					channel.close();
+			}
+			catch (IOException e) { }
+		}
+	}
+
+	/**
+	 * A byte range of the file. The chunk owns every line that starts inside
+	 * its range, so it skips a partial first line (the previous chunk owns
+	 * it) and reads past its end to finish its last line.
+	 */
+	private abstract static class Chunk implements Callable<Void> {
+		private final FileChannel channel;
+		private final long start, end;
+		protected MappedByteBuffer buf;
+		protected long base; // Position in the file of buf[0].
+
+		Chunk(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		public Void call() throws IOException {
+			// Map one byte early to see whether start begins a line, and as far
+			// past end as one mapping allows to finish the last line.
+			long from = Math.max(0, start - 1);
+			long length = Math.min(channel.size() - from, Integer.MAX_VALUE);
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+			base = from;
+			int pos = 0;
+			if (start > 0)
+				pos = skipLine(0);
+			int stop = (int) (end - from);
+			while (pos < stop && pos < buf.limit())
+				pos = parseLine(pos);
+			buf = null;
+			return null;
+		}
+
+		// Parse the line beginning at pos; return the index after its newline.
+		protected abstract int parseLine(int pos);
+
+		// Return the index after the next newline at or after pos.
+		protected int skipLine(int pos) {
+			while (pos < buf.limit() && buf.get(pos) != '\n')
+				pos++;
+			return pos + 1;
+		}
+
+		// Is pos past the end of the current line?
+		protected boolean atEol(int pos) {
+			if (pos >= buf.limit())
+				return true;
+			byte b = buf.get(pos);
+			return b == '\n' || b == '\r';
+		}
+
+		// Parse the nonnegative integer at pos into value[0]; return the index
+		// of the byte after it.
+		protected int parseInt(int pos, int[] value) {
+			int n = 0, digits = 0;
+			for ( ; pos < buf.limit(); pos++, digits++) {
+				int d = buf.get(pos) - '0';
+				if (d < 0 || d > 9)
+					break;
+				n = 10 * n + d;
+			}
+			if (digits == 0)
+				throw new NumberFormatException("No id at byte " + pos);
+			value[0] = n;
+			return pos;
+		}
+	}
+
+	private static class SynsetChunk extends Chunk {
+		private final IntList ids = new IntList();
+		private final IntList ends = new IntList(); // Where each synset ends.
+		private final LongList lines = new LongList(); // Where each line starts.
+		private final ByteList bytes = new ByteList();
+		private final int[] id = new int[1];
+
+		SynsetChunk(FileChannel channel, long start, long end) {
+			super(channel, start, end);
+		}
+
+		protected int parseLine(int pos) {
+			if (atEol(pos))
+				return skipLine(pos);
+			lines.add(base + pos);
+			pos = parseInt(pos, id) + 1; // Skip the comma.
+			for ( ; !atEol(pos) && buf.get(pos) != ','; pos++)
+				bytes.add(buf.get(pos));
+			ids.add(id[0]);
+			ends.add(bytes.size());
+			return skipLine(pos);
+		}
+	}
+
+	private static class HypernymChunk extends Chunk {
+		private final IntList edges = new IntList();
+		private final int[] id = new int[1];
+		private final int[] hypernym = new int[1];
+
+		HypernymChunk(FileChannel channel, long start, long end) {
+			super(channel, start, end);
+		}
+
+		protected int parseLine(int pos) {
+			if (atEol(pos))
+				return skipLine(pos);
+			pos = parseInt(pos, id);
+			while (!atEol(pos) && buf.get(pos) == ',') {
+				pos = parseInt(pos + 1, hypernym);
+				edges.add(id[0]);
+				edges.add(hypernym[0]);
+			}
+			return skipLine(pos);
+		}
+	}
+
+	// A growable array of ints.
+	private static class IntList {
+		private int[] a = new int[16];
+		private int n;
+
+		void add(int x) {
+			if (n == a.length)
+				a = Arrays.copyOf(a, 2 * n);
+			a[n++] = x;
+		}
+
+		int get(int i) { return a[i]; }
+		int size() { return n; }
+		void copyTo(int[] dest, int offset) { System.arraycopy(a, 0, dest, offset, n); }
+	}
+
+	// A growable array of longs.
+	private static class LongList {
+		private long[] a = new long[16];
+		private int n;
+
+		void add(long x) {
+			if (n == a.length)
+				a = Arrays.copyOf(a, 2 * n);
+			a[n++] = x;
+		}
+
+		long get(int i) { return a[i]; }
+	}
+
+	// A growable array of bytes.
+	private static class ByteList {
+		private byte[] a = new byte[256];
+		private int n;
+
+		void add(byte x) {
+			if (n == a.length)
+				a = Arrays.copyOf(a, 2 * n);
+			a[n++] = x;
+		}
+
+		int size() { return n; }
+		void copyTo(int from, byte[] dest, int offset, int length) {
+			System.arraycopy(a, from, dest, offset, length);
+		}
+	}
+}
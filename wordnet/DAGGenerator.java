@@ -0,0 +1,141 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac DAGGenerator.java
+ * Execution:    java DAGGenerator V depth fanIn seed prefix
+ * Dependencies: Digraph.java
+ *
+ * Generate a random rooted DAG shaped like a WordNet hypernym graph, and a
+ * matching synsets file, deterministically from a seed. Writes
+ * prefix-synsets.txt and prefix-hypernyms.txt.
+ *
+ ************************************************************************/
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * A synthetic WordNet: a rooted DAG of <em>V</em> synsets with a given depth
+ * and maximum fan-in, and the nouns in each synset.
+ * <p>
+ * Synset 0 is the root. The other synsets are split into <em>depth</em>
+ * levels of nearly equal size, numbered in level order, so every edge goes
+ * from a larger id to a smaller one and the graph is acyclic. Each synset
+ * has one hypernym chosen uniformly from the level just above it, which
+ * makes the depth exact, and up to <em>fanIn</em> - 1 more chosen uniformly
+ * from all the levels above it.
+ * <p>
+ * Each synset contains a noun unique to it, and with some probability one or
+ * two nouns drawn from a shared vocabulary, so that, as in WordNet, many
+ * nouns belong to several synsets.
+ * <p>
+ * The same arguments always generate the same files.
+ *
+ * @author William Schwartz
+ */
+public class DAGGenerator {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final int[][] hypernyms;  // hypernyms[v] = hypernyms of synset v
+	private final String[] synsets;   // synsets[v] = nouns of synset v
+
+	/**
+	 * Generate a DAG with V synsets (at least 2), depth levels below the root
+	 * (between 1 and V - 1) and at most fanIn (at least 1) hypernyms per
+	 * synset.
+	 */
+	public DAGGenerator(int V, int depth, int fanIn, long seed) {
+		if (V < 2 || depth < 1 || depth > V - 1 || fanIn < 1)
+			throw new IllegalArgumentException("Bad V, depth or fanIn");
+		Random random = new Random(seed);
+		hypernyms = new int[V][];
+		synsets = new String[V];
+		hypernyms[0] = new int[0];
+
+		// Level L (1 <= L <= depth) holds ids [start[L], start[L + 1]).
+		int[] start = new int[depth + 2];
+		start[0] = 0;
+		for (int L = 1; L <= depth + 1; L++)
+			start[L] = 1 + (int) ((long) (V - 1) * (L - 1) / depth);
+		for (int L = 1; L <= depth; L++) {
+			for (int v = start[L]; v < start[L + 1]; v++) {
+				int n = 1 + random.nextInt(Math.min(fanIn, start[L]));
+				int[] h = new int[n];
+				h[0] = start[L - 1] + random.nextInt(start[L] - start[L - 1]);
+				for (int i = 1; i < n; i++) {
+					h[i] = random.nextInt(start[L]);
+					for (int j = 0; j < i; j++)
+						if (h[j] == h[i]) { // Redraw duplicates.
+							i--;
+							break;
+						}
+				}
+				hypernyms[v] = h;
+			}
+		}
+
+		int vocabulary = Math.max(1, V / 4);
+		for (int v = 0; v < V; v++) {
+			StringBuilder s = new StringBuilder("noun").append(v);
+			for (int i = 0; i < 2; i++)
+				if (random.nextInt(3) == 0)
+					s.append(" word").append(random.nextInt(vocabulary));
+			synsets[v] = s.toString();
+		}
+	}
+
+	// number of synsets
+	public int V() { return synsets.length; }
+
+	// the nouns of synset v, separated by spaces
+	public String synset(int v) { return synsets[v]; }
+
+	// the hypernyms of synset v; do not modify
+	public int[] hypernyms(int v) { return hypernyms[v]; }
+
+	/**
+	 * The hypernym graph as a new digraph.
+	 */
+	public Digraph digraph() {
+		Digraph G = new Digraph(V());
+		for (int v = 0; v < V(); v++)
+			for (int w : hypernyms[v])
+				G.addEdge(v, w);
+		return G;
+	}
+
+	/**
+	 * Write files in the format WordNet reads: synsets (id, nouns, gloss)
+	 * and hypernyms (id followed by its hypernyms' ids).
+	 */
+	public void write(String synsetsFile, String hypernymsFile)
+		throws IOException {
+		Writer s = Files.newBufferedWriter(Paths.get(synsetsFile), UTF8);
+		Writer h = Files.newBufferedWriter(Paths.get(hypernymsFile), UTF8);
+		try {
+			for (int v = 0; v < V(); v++) {
+				s.write(v + "," + synsets[v] + ",synthetic synset " + v + "\n");
+				StringBuilder line = new StringBuilder().append(v);
+				for (int w : hypernyms[v])
+					line.append(',').append(w);
+				h.write(line.append('\n').toString());
+			}
+		}
+		finally {
+			s.close();
+			h.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int V = Integer.parseInt(args[0]);
+		int depth = Integer.parseInt(args[1]);
+		int fanIn = Integer.parseInt(args[2]);
+		long seed = Long.parseLong(args[3]);
+		String prefix = args[4];
+		DAGGenerator dag = new DAGGenerator(V, depth, fanIn, seed);
+		dag.write(prefix + "-synsets.txt", prefix + "-hypernyms.txt");
+	}
+}
@@ -0,0 +1,50 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac Hyponyms.java
+ * Dependencies: Digraph.java
+ *
+ * Compact reverse adjacency lists of a digraph.
+ *
+ ************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * The edges of a digraph followed backwards, in compressed sparse row form:
+ * the vertices with an edge to <em>w</em> (in a hypernym graph, the direct
+ * hyponyms of <em>w</em>) are <code>get(i)</code> for <code>first(w)</code>
+ * &le; <em>i</em> &lt; <code>first(w + 1)</code>, in increasing order. Two
+ * int arrays instead of a <code>Digraph</code> of <code>Bag</code>s.
+ *
+ * @author William Schwartz
+ */
+class Hyponyms {
+	private final int[] first;
+	private final int[] sources;
+
+	/**
+	 * Reverse the edges among the first V vertices of G, ignoring any others.
+	 */
+	public Hyponyms(Digraph G, int V) {
+		first = new int[V + 1];
+		for (int v = 0; v < V; v++)
+			for (int w : G.adj(v))
+				first[w + 1]++;
+		for (int w = 0; w < V; w++)
+			first[w + 1] += first[w];
+		sources = new int[first[V]];
+		int[] next = Arrays.copyOf(first, V);
+		for (int v = 0; v < V; v++)
+			for (int w : G.adj(v))
+				sources[next[w]++] = v;
+	}
+
+	// number of vertices
+	public int V() { return first.length - 1; }
+
+	// index of w's first reverse edge; first(V()) is the number of edges
+	public int first(int w) { return first[w]; }
+
+	// the tail of reverse edge i
+	public int get(int i) { return sources[i]; }
+}
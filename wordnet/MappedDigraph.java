@@ -0,0 +1,335 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac MappedDigraph.java
+ * Execution:    java MappedDigraph hypernyms.txt graph.bin
+ *               java MappedDigraph -digraph digraph.txt graph.bin
+ * Dependencies: Digraph.java In.java
+ *
+ * Read-only digraph whose adjacency lists live off the heap in a memory
+ * mapped file, and the offline converter that writes such files.
+ *
+ ************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A digraph in compressed sparse row form, mapped from a file: the heads of
+ * the edges out of vertex <em>v</em> are <code>targets[offsets[v]]</code> up
+ * to but not including <code>targets[offsets[v+1]]</code>. The operating
+ * system pages the arrays in and out as needed, so an instance uses a
+ * constant amount of heap no matter how many vertices and edges it has.
+ * <p>
+ * A single mapping cannot exceed 2 GB, so each array is mapped in segments
+ * of 2<sup>30</sup> bytes and an index is split into a segment and an offset
+ * within it.
+ * <p>
+ * File format, big-endian: the magic number, the version, V, a pad word, E
+ * as a long, V + 1 long offsets, and E int targets. Each vertex's targets are
+ * in the order <code>Digraph.adj()</code> would iterate them, so searches
+ * over either form of a graph break ties the same way.
+ *
+ * @author William Schwartz
+ */
+public class MappedDigraph {
+	private static final int MAGIC = 0x57434752;
+	private static final int VERSION = 1;
+	private static final int HEADER = 24;         // bytes
+	private static final int SEGMENT_SHIFT = 30;  // log2 of bytes per segment
+	private static final int LONG_SHIFT = SEGMENT_SHIFT - 3;
+	private static final int INT_SHIFT = SEGMENT_SHIFT - 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final int V;
+	private final long E;
+	private final LongBuffer[] offsets;
+	private final IntBuffer[] targets;
+
+	private MappedDigraph(int V, long E, LongBuffer[] offsets,
+						  IntBuffer[] targets) {
+		this.V = V;
+		this.E = E;
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+
+	/**
+	 * Map a file written by <code>write()</code> or <code>convert()</code>.
+	 * @throws java.lang.IllegalArgumentException if it is not such a file.
+	 */
+	public static MappedDigraph open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (!accepts(channel))
+				throw new IllegalArgumentException(file + " is not a mapped "
+												   + "digraph");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+											HEADER);
+			header.position(8);
+			int V = header.getInt();
+			header.getInt();
+			long E = header.getLong();
+			long targetsAt = HEADER + 8L * (V + 1);
+			if (channel.size() != targetsAt + 4 * E)
+				throw new IllegalArgumentException(file + " is truncated");
+			MappedByteBuffer[] o = map(channel, FileChannel.MapMode.READ_ONLY,
+									   HEADER, 8L * (V + 1));
+			MappedByteBuffer[] t = map(channel, FileChannel.MapMode.READ_ONLY,
+									   targetsAt, 4 * E);
+			LongBuffer[] offsets = new LongBuffer[o.length];
+			for (int i = 0; i < o.length; i++)
+				offsets[i] = o[i].asLongBuffer();
+			IntBuffer[] targets = new IntBuffer[t.length];
+			for (int i = 0; i < t.length; i++)
+				targets[i] = t[i].asIntBuffer();
+			return new MappedDigraph(V, E, offsets, targets);
+		}
+		finally {
+			channel.close(); // Mappings stay valid after the channel closes.
+		}
+	}
+
+	/**
+	 * Does the file start like a mapped digraph?
+	 */
+	public static boolean accepts(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return accepts(channel);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static boolean accepts(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER)
+			return false;
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+		return header.getInt() == MAGIC && header.getInt() == VERSION;
+	}
+
+	// Map bytes starting at position in segments of 2^SEGMENT_SHIFT bytes.
+	private static MappedByteBuffer[] map(FileChannel channel,
+										  FileChannel.MapMode mode,
+										  long position, long bytes)
+		throws IOException {
+		long segment = 1L << SEGMENT_SHIFT;
+		int n = (int) Math.max(1, (bytes + segment - 1) >>> SEGMENT_SHIFT);
+		MappedByteBuffer[] buffers = new MappedByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long start = i * segment;
+			buffers[i] = channel.map(mode, position + start,
+									 Math.min(segment, bytes - start));
+		}
+		return buffers;
+	}
+
+	// number of vertices
+	public int V() { return V; }
+
+	// number of edges
+	public long E() { return E; }
+
+	// index in targets of v's first edge; first(V) == E
+	private long first(int v) {
+		return offsets[v >>> LONG_SHIFT].get(v & ((1 << LONG_SHIFT) - 1));
+	}
+
+	// the head of the i-th edge
+	private int target(long i) {
+		return targets[(int) (i >>> INT_SHIFT)]
+			.get((int) (i & ((1 << INT_SHIFT) - 1)));
+	}
+
+	/**
+	 * Number of edges out of v.
+	 */
+	public int outdegree(int v) {
+		validate(v);
+		return (int) (first(v + 1) - first(v));
+	}
+
+	/**
+	 * Copy the heads of the edges out of v into a, which is grown if needed,
+	 * and return a. There are <code>outdegree(v)</code> of them.
+	 */
+	public int[] adj(int v, int[] a) {
+		validate(v);
+		long from = first(v), to = first(v + 1);
+		if (a.length < to - from)
+			a = new int[(int) (to - from)];
+		for (long i = from; i < to; i++)
+			a[(int) (i - from)] = target(i);
+		return a;
+	}
+
+	/**
+	 * Iterate over the heads of the edges out of v.
+	 */
+	public Iterable<Integer> adj(final int v) {
+		validate(v);
+		return new Iterable<Integer>() {
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private long i = first(v);
+					private final long to = first(v + 1);
+					public boolean hasNext() { return i < to; }
+					public Integer next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return target(i++);
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	private void validate(int v) {
+		if (v < 0 || v >= V)
+			throw new IndexOutOfBoundsException("Vertex " + v);
+	}
+
+	/**
+	 * Write a heap digraph in the mapped format.
+	 */
+	public static void write(Digraph G, Path file) throws IOException {
+		long E = 0;
+		for (int v = 0; v < G.V(); v++)
+			for (int w : G.adj(v))
+				E++;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(file), 1 << 16));
+		try {
+			writeHeader(out, G.V(), E);
+			long offset = 0;
+			out.writeLong(offset);
+			for (int v = 0; v < G.V(); v++) {
+				for (int w : G.adj(v))
+					offset++;
+				out.writeLong(offset);
+			}
+			for (int v = 0; v < G.V(); v++)
+				for (int w : G.adj(v))
+					out.writeInt(w);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Convert a WordNet hypernyms file to the mapped format without building
+	 * the graph on the heap: one pass counts each synset's edges, and a second
+	 * pass writes each edge straight into its place in the mapped output.
+	 * Uses heap linear in the number of vertices but not edges.
+	 */
+	public static void convert(Path hypernyms, Path file) throws IOException {
+		// First pass: V and outdegrees.
+		long[] first = new long[16];
+		int V = 0;
+		BufferedReader in = Files.newBufferedReader(hypernyms, UTF8);
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] fields = line.split(",");
+				if (fields[0].length() == 0)
+					continue;
+				for (String f : fields)
+					V = Math.max(V, Integer.parseInt(f) + 1);
+				if (V + 1 > first.length)
+					first = Arrays.copyOf(first, Math.max(V + 1, 2 * first.length));
+				first[Integer.parseInt(fields[0]) + 1] += fields.length - 1;
+			}
+		}
+		finally {
+			in.close();
+		}
+		first = Arrays.copyOf(first, V + 1);
+		for (int v = 0; v < V; v++)
+			first[v + 1] += first[v];
+		long E = first[V];
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(file), 1 << 16));
+		try {
+			writeHeader(out, V, E);
+			for (long offset : first)
+				out.writeLong(offset);
+		}
+		finally {
+			out.close();
+		}
+
+		// Second pass: fill each vertex's targets from the back, so they come
+		// out in the reverse order of the file, as Digraph.adj() would give.
+		long targetsAt = HEADER + 8L * (V + 1);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+											   StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer[] t = map(channel, FileChannel.MapMode.READ_WRITE,
+									   targetsAt, 4 * E);
+			long[] next = Arrays.copyOfRange(first, 1, V + 1);
+			in = Files.newBufferedReader(hypernyms, UTF8);
+			try {
+				for (String line = in.readLine(); line != null;
+					 line = in.readLine()) {
+					String[] fields = line.split(",");
+					if (fields[0].length() == 0)
+						continue;
+					int v = Integer.parseInt(fields[0]);
+					for (int i = 1; i < fields.length; i++) {
+						long at = 4 * --next[v];
+						t[(int) (at >>> SEGMENT_SHIFT)].putInt(
+							(int) (at & ((1L << SEGMENT_SHIFT) - 1)),
+							Integer.parseInt(fields[i]));
+					}
+				}
+			}
+			finally {
+				in.close();
+			}
+			for (MappedByteBuffer b : t)
+				b.force();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out, int V, long E)
+		throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(V);
+		out.writeInt(0);
+		out.writeLong(E);
+	}
+
+	/**
+	 * Convert a hypernyms file, or with <code>-digraph</code> a digraph file
+	 * in the format of <code>Digraph(In)</code>, to a mapped digraph.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args[0].equals("-digraph"))
+			write(new Digraph(new In(args[1])), Paths.get(args[2]));
+		else
+			convert(Paths.get(args[0]), Paths.get(args[1]));
+	}
+}
@@ -0,0 +1,286 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac NounIndex.java
+ * Dependencies: StringPool.java
+ *
+ * Memory-compact map from WordNet nouns to the ids of the synsets that
+ * contain them.
+ *
+ ************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps each noun to the ids of the synsets containing it, using a handful of
+ * primitive arrays instead of one map entry, one collection and several boxed
+ * integers per noun.
+ * <p>
+ * The nouns are sorted (by code point) in a <code>StringPool</code>, so a noun
+ * is looked up by binary search and is then identified by its position in
+ * the sort, its <em>handle</em>. The synset ids of the noun with handle
+ * <em>n</em> are <code>postings[postingOffsets[n]]</code> up to but not
+ * including <code>postings[postingOffsets[n+1]]</code>, in increasing order.
+ * <p>
+ * Those arrays are immutable. Postings added later by <code>add()</code> go
+ * in small overflow maps instead: a noun that is not in the sorted arrays
+ * gets the next handle after the existing ones, and any noun may have extra
+ * synset ids after its sorted ones.
+ *
+ * @author William Schwartz
+ */
+class NounIndex {
+	private final StringPool nouns;
+	private final int[] postingOffsets;
+	private final int[] postings;
+	private final ArrayList<String> addedNouns = new ArrayList<String>();
+	private final HashMap<String, Integer> addedHandles =
+		new HashMap<String, Integer>();
+	private final HashMap<Integer, int[]> addedIds =
+		new HashMap<Integer, int[]>();
+	private AtomicReferenceArray<int[]> shared; // sharedIds() by handle
+
+	/**
+	 * Wrap existing arrays, which must not be modified afterwards. The nouns
+	 * must already be sorted.
+	 */
+	public NounIndex(StringPool nouns, int[] postingOffsets, int[] postings) {
+		this.nouns = nouns;
+		this.postingOffsets = postingOffsets;
+		this.postings = postings;
+		this.shared = new AtomicReferenceArray<int[]>(nouns.size());
+	}
+
+	/**
+	 * Index the space-separated nouns in each synset of a pool of synsets,
+	 * where a synset's id is its position in the pool. Uses time linearithmic
+	 * in the total number of nouns.
+	 */
+	public static NounIndex of(StringPool synsets) {
+		byte[] text = synsets.bytes();
+		int[] ends = synsets.offsets();
+
+		// Split the synsets into (start, end, synset id) tokens in id order.
+		int n = 0;
+		for (int id = 0; id < synsets.size(); id++)
+			for (int i = ends[id]; i < ends[id + 1]; i++)
+				if (text[i] != ' ' && (i == ends[id] || text[i - 1] == ' '))
+					n++;
+		int[] start = new int[n], end = new int[n], ids = new int[n];
+		n = 0;
+		for (int id = 0; id < synsets.size(); id++) {
+			int i = ends[id];
+			while (i < ends[id + 1]) {
+				int j = i;
+				while (j < ends[id + 1] && text[j] != ' ')
+					j++;
+				if (j > i) {
+					start[n] = i;
+					end[n] = j;
+					ids[n] = id;
+					n++;
+				}
+				i = j + 1;
+			}
+		}
+
+		// Stable sort keeps each noun's synset ids in increasing order.
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		sort(order, new int[n], 0, n, text, start, end);
+
+		// Copy out distinct nouns and their synset ids.
+		int numNouns = 0, poolSize = 0;
+		for (int i = 0; i < n; i++)
+			if (i == 0 || compare(text, start, end, order[i - 1], order[i]) != 0) {
+				numNouns++;
+				poolSize += end[order[i]] - start[order[i]];
+			}
+		byte[] pool = new byte[poolSize];
+		int[] keyOffsets = new int[numNouns + 1];
+		int[] postingOffsets = new int[numNouns + 1];
+		int[] postings = new int[n];
+		int k = -1, p = 0;
+		for (int i = 0; i < n; i++) {
+			int t = order[i];
+			if (i == 0 || compare(text, start, end, order[i - 1], t) != 0) {
+				k++;
+				int len = end[t] - start[t];
+				System.arraycopy(text, start[t], pool, keyOffsets[k], len);
+				keyOffsets[k + 1] = keyOffsets[k] + len;
+				postingOffsets[k] = p;
+			}
+			// A noun listed twice in one synset gets one posting.
+			if (p == postingOffsets[k] || postings[p - 1] != ids[t])
+				postings[p++] = ids[t];
+		}
+		postingOffsets[numNouns] = p;
+		if (p < n)
+			postings = Arrays.copyOf(postings, p);
+		return new NounIndex(new StringPool(pool, keyOffsets), postingOffsets,
+							 postings);
+	}
+
+	// Compare tokens s and t of text.
+	private static int compare(byte[] text, int[] start, int[] end, int s,
+							   int t) {
+		return StringPool.compare(text, start[s], end[s],
+								  text, start[t], end[t]);
+	}
+
+	// Stable merge sort of a[lo..hi) by token text, using aux as scratch.
+	private static void sort(int[] a, int[] aux, int lo, int hi, byte[] text,
+							 int[] start, int[] end) {
+		if (hi - lo < 2)
+			return;
+		int mid = (lo + hi) >>> 1;
+		sort(a, aux, lo, mid, text, start, end);
+		sort(a, aux, mid, hi, text, start, end);
+		if (compare(text, start, end, a[mid - 1], a[mid]) <= 0)
+			return;
+		System.arraycopy(a, lo, aux, lo, hi - lo);
+		int i = lo, j = mid;
+		for (int k = lo; k < hi; k++) {
+			if (i >= mid)
+				a[k] = aux[j++];
+			else if (j >= hi)
+				a[k] = aux[i++];
+			else if (compare(text, start, end, aux[j], aux[i]) < 0)
+				a[k] = aux[j++];
+			else
+				a[k] = aux[i++];
+		}
+	}
+
+	/**
+	 * Number of distinct nouns.
+	 */
+	public int size() { return nouns.size() + addedNouns.size(); }
+
+	/**
+	 * Add a synset id to a noun's postings, adding the noun if it is new.
+	 * Returns the noun's handle. Existing handles do not change.
+	 */
+	public int add(String noun, int id) {
+		int handle = find(noun);
+		if (handle < 0) {
+			handle = size();
+			addedNouns.add(noun);
+			addedHandles.put(noun, handle);
+		}
+		int[] extra = addedIds.get(handle);
+		extra = extra == null ? new int[1] : Arrays.copyOf(extra, extra.length + 1);
+		extra[extra.length - 1] = id;
+		addedIds.put(handle, extra);
+		if (handle >= shared.length()) {
+			AtomicReferenceArray<int[]> grown =
+				new AtomicReferenceArray<int[]>(2 * handle + 1);
+			for (int h = 0; h < shared.length(); h++)
+				grown.set(h, shared.get(h));
+			shared = grown;
+		}
+		shared.set(handle, null);
+		return handle;
+	}
+
+	/**
+	 * Return the handle of a noun, or -1 if it is not in the index. Uses
+	 * time logarithmic in the number of nouns.
+	 */
+	public int find(String noun) {
+		byte[] key = noun.getBytes(StringPool.UTF8);
+		int lo = 0, hi = nouns.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = nouns.compare(mid, key);
+			if (cmp < 0)
+				lo = mid + 1;
+			else if (cmp > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		if (addedHandles.isEmpty())
+			return -1;
+		Integer handle = addedHandles.get(noun);
+		return handle == null ? -1 : handle;
+	}
+
+	/**
+	 * The noun with a given handle.
+	 */
+	public String noun(int handle) {
+		if (handle < nouns.size())
+			return nouns.get(handle);
+		return addedNouns.get(handle - nouns.size());
+	}
+
+	/**
+	 * A new array of the ids of the synsets containing the noun with a given
+	 * handle.
+	 */
+	public int[] ids(int handle) {
+		int from = 0, to = 0;
+		if (handle < nouns.size()) {
+			from = postingOffsets[handle];
+			to = postingOffsets[handle + 1];
+		}
+		int[] ids = Arrays.copyOfRange(postings, from, to);
+		int[] extra = addedIds.isEmpty() ? null : addedIds.get(handle);
+		if (extra == null)
+			return ids;
+		ids = Arrays.copyOf(ids, ids.length + extra.length);
+		System.arraycopy(extra, 0, ids, to - from, extra.length);
+		return ids;
+	}
+
+	/**
+	 * The ids of the synsets containing the noun with a given handle, as by
+	 * <code>ids()</code>, but in an array shared by every caller, which must
+	 * not modify it. The array is made on first use and kept until
+	 * <code>add()</code> gives the noun another synset, so repeated queries
+	 * on a noun allocate nothing.
+	 */
+	public int[] sharedIds(int handle) {
+		int[] ids = shared.get(handle);
+		if (ids == null) {
+			ids = ids(handle);
+			shared.set(handle, ids); // A race just makes an equal array twice.
+		}
+		return ids;
+	}
+
+	/**
+	 * All nouns, decoded as they are iterated: the original nouns in sorted
+	 * order, followed by any added nouns in the order they were added.
+	 */
+	public Iterable<String> nouns() {
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next = 0;
+					public boolean hasNext() { return next < size(); }
+					public String next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return noun(next++);
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	// The underlying arrays, for snapshots, without any added postings. Do
+	// not modify.
+	StringPool pool() { return nouns; }
+	int[] postingOffsets() { return postingOffsets; }
+	int[] postings() { return postings; }
+}
@@ -0,0 +1,163 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac OnlineTopological.java
+ * Dependencies: Digraph.java SAP.java Stack.java
+ *
+ * Maintain a topological order of a DAG as edges and vertices are added, and
+ * detect any added edge that would create a cycle. Uses the algorithm of
+ * Pearce and Kelly, "A Dynamic Topological Sort Algorithm for Directed
+ * Acyclic Graphs" (2006).
+ *
+ ************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * An online topological order of a DAG: <code>ord[v] &lt; ord[w]</code> for
+ * every edge v->w. Adding an edge that already agrees with the order takes
+ * constant time. Otherwise only the vertices whose positions lie between the
+ * edge's endpoints, and that are reachable from (or reach) an endpoint, are
+ * searched and reordered, so the cost is proportional to the affected region
+ * rather than to the whole graph.
+ * <p>
+ * The caller owns the forward digraph and passes it to each method. This class
+ * keeps its own reverse adjacency lists for the backward searches.
+ *
+ * @author William Schwartz
+ */
+class OnlineTopological {
+	private int[] ord;          // ord[v] = position of v; not necessarily dense
+	private boolean[] visited;  // scratch for the searches; left all false
+	private Digraph reverse;    // reverse[w] has v for every edge v->w
+	private int V;              // number of vertices in use
+	private int minOrd;         // least position in use
+
+	/**
+	 * Start from an existing topological order of the first <em>V</em>
+	 * vertices of a DAG, which this instance takes over and updates in place
+	 * (until it has to grow). Builds the reverse adjacency lists in time linear
+	 * in the size of the DAG.
+	 */
+	public OnlineTopological(Digraph G, int V, int[] ord) {
+		this.V = V;
+		this.ord = ord;
+		visited = new boolean[ord.length];
+		reverse = new Digraph(ord.length);
+		for (int v = 0; v < V; v++) {
+			minOrd = Math.min(minOrd, ord[v]);
+			for (int w : G.adj(v))
+				reverse.addEdge(w, v);
+		}
+	}
+
+	/**
+	 * Add a new vertex with no edges yet, which must be the next vertex
+	 * number. It goes first in the order, so edges from it to existing
+	 * vertices never require reordering.
+	 */
+	public void addVertex(int v) {
+		if (v != V)
+			throw new IllegalArgumentException("Expected vertex " + V);
+		if (V == ord.length) {
+			int capacity = Math.max(16, 2 * V);
+			ord = Arrays.copyOf(ord, capacity);
+			visited = new boolean[capacity];
+			reverse = SAP.copy(reverse, capacity);
+		}
+		ord[V++] = --minOrd;
+	}
+
+	/**
+	 * Record an edge x->y that the caller is about to add to G, reordering
+	 * vertices as needed. Returns false, changing nothing, if the edge would
+	 * create a cycle.
+	 */
+	public boolean addEdge(Digraph G, int x, int y) {
+		if (x == y)
+			return false;
+		int lb = ord[y], ub = ord[x];
+		if (lb < ub) {
+			// Vertices reachable from y in the affected region, then vertices
+			// reaching x in it. Reaching x from y means x->y closes a cycle.
+			int[] forward = search(G, y, lb, ub, x);
+			if (forward == null)
+				return false;
+			int[] backward = search(reverse, x, lb, ub, -1);
+			reorder(backward, forward);
+		}
+		reverse.addEdge(y, x);
+		return true;
+	}
+
+	// Depth first search from s through vertices whose positions are in
+	// [lb, ub]. Returns the vertices found, or null if it finds the target.
+	private int[] search(Digraph G, int s, int lb, int ub, int target) {
+		int[] found = new int[16];
+		int n = 0;
+		Stack<Integer> stack = new Stack<Integer>();
+		stack.push(s);
+		visited[s] = true;
+		while (!stack.isEmpty()) {
+			int v = stack.pop();
+			if (n == found.length)
+				found = Arrays.copyOf(found, 2 * n);
+			found[n++] = v;
+			for (int w : G.adj(v)) {
+				if (w == target) {
+					clear(found, n, stack);
+					return null;
+				}
+				if (!visited[w] && ord[w] >= lb && ord[w] <= ub) {
+					visited[w] = true;
+					stack.push(w);
+				}
+			}
+		}
+		clear(found, n, stack);
+		return Arrays.copyOf(found, n);
+	}
+
+	// Reset the visited flags that a search set.
+	private void clear(int[] found, int n, Stack<Integer> stack) {
+		for (int i = 0; i < n; i++)
+			visited[found[i]] = false;
+		for (int v : stack)
+			visited[v] = false;
+	}
+
+	// Give the backward vertices, then the forward vertices, the positions
+	// they held between them, each group keeping its relative order.
+	private void reorder(int[] backward, int[] forward) {
+		sortByOrd(backward);
+		sortByOrd(forward);
+		int[] positions = new int[backward.length + forward.length];
+		int n = 0;
+		for (int v : backward)
+			positions[n++] = ord[v];
+		for (int v : forward)
+			positions[n++] = ord[v];
+		Arrays.sort(positions);
+		n = 0;
+		for (int v : backward)
+			ord[v] = positions[n++];
+		for (int v : forward)
+			ord[v] = positions[n++];
+	}
+
+	// Sort vertices by position, by sorting (position, vertex) pairs packed
+	// into longs.
+	private void sortByOrd(int[] a) {
+		long[] packed = new long[a.length];
+		for (int i = 0; i < a.length; i++)
+			packed[i] = ((long) ord[a[i]] << 32) | a[i];
+		Arrays.sort(packed);
+		for (int i = 0; i < a.length; i++)
+			a[i] = (int) packed[i];
+	}
+
+	// position of v in the order
+	public int ord(int v) { return ord[v]; }
+
+	// vertices with an edge to v
+	public Iterable<Integer> reverseAdj(int v) { return reverse.adj(v); }
+}
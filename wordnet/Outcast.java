@@ -2,14 +2,24 @@
  * Author: William Schwartz
  * Compliation: javac Outcast.java
  * Testing: java Outcast synsets.csv hypernyms.csv outcasts1.txt outcasts2.txt ...
+ * Batches: java Outcast -threads 8 -lines synsets.csv hypernyms.csv sets.txt ...
  * Dependencies: Digraph.java
  *
  * Detect an unrelated word in a set of nouns.
  *
  ************************************************************************/
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
- * Detect an unrelated word in a set of nouns. Data type is immutable.
+ * Detect an unrelated word in a set of nouns. Data type is immutable, so one
+ * instance can serve many threads.
  * <p>
  * Given the definition of <em>distance</em> in <code>WordNet</code>, an
  * <em>outcast</em> is a word whose sum of distances to all other words in the
@@ -33,6 +43,7 @@ public class Outcast {
 	 * <p>
 	 * Given an array of WordNet nouns, return an outcast. Assume the argument
 	 * array contains at least two valid WordNet nouns, and no non-valid nouns.
+	 * Runs one WordNet traversal per noun, not one per pair of nouns.
 	 *
 	 * @param nouns An array of strings containing at least two nouns, all of
 	 *              which are in the WordNet that was passed to the constructor.
@@ -40,11 +51,41 @@ public class Outcast {
 	 * others.
 	 */
 	public String outcast(String[] nouns) {
-		int[][] distances = new int[nouns.length][nouns.length];
-		for (int i = 0; i < nouns.length; i++)
-			for (int j = i + 1; j < nouns.length; j++)
-				distances[i][j] = wordnet.distance(nouns[i], nouns[j]);
-		return nouns[argMaxUpperTriangular(distances)];
+		return nouns[argMaxUpperTriangular(wordnet.distances(nouns))];
+	}
+
+	/**
+	 * Return the outcast of each of many noun sets, evaluated concurrently on
+	 * an executor. All tasks share this instance's <code>WordNet</code>.
+	 *
+	 * @param sets     Arrays of nouns, each as for <code>outcast()</code>.
+	 * @param executor Runs one task per set. Not shut down by this method.
+	 * @return The outcast of each set, in the same order as the sets.
+	 * @throws java.lang.IllegalArgumentException if any set contains a noun
+	 * that is not in the WordNet.
+	 * @throws java.lang.InterruptedException if interrupted while waiting.
+	 */
+	public String[] outcasts(List<String[]> sets, ExecutorService executor)
+		throws InterruptedException {
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		for (final String[] nouns : sets) {
+			tasks.add(new Callable<String>() {
+				public String call() { return outcast(nouns); }
+			});
+		}
+		String[] outcasts = new String[sets.size()];
+		int i = 0;
+		for (Future<String> f : executor.invokeAll(tasks)) {
+			try {
+				outcasts[i++] = f.get();
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return outcasts;
 	}
 
 	/**
@@ -83,17 +124,62 @@ public class Outcast {
 	 * The following test client takes from the command line the name of a
 	 * synset file, the name of a hypernym file, followed by the names of
 	 * outcast files, and prints out an outcast in each file.
+	 * <p>
+	 * Before the file names, <code>-threads n</code> evaluates the sets on
+	 * <em>n</em> threads (default: one per core) and <code>-lines</code> treats
+	 * each line of each outcast file as a separate whitespace-separated set.
+	 * Outcasts are printed in input order, followed on standard error by the
+	 * throughput.
 	 *
 	 * @author Alina Ene
 	 * @author Kevin Wayne
 	 */
-    public static void main(String[] args) {
-        WordNet wordnet = new WordNet(args[0], args[1]);
-        Outcast outcast = new Outcast(wordnet);
-        for (int t = 2; t < args.length; t++) {
-            String[] nouns = In.readStrings(args[t]);
-            StdOut.println(args[t] + ": " + outcast.outcast(nouns));
-        }
-    }
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean lines = false;
+		int a = 0;
+		for ( ; args[a].startsWith("-"); a++) {
+			if (args[a].equals("-threads"))
+				threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-lines"))
+				lines = true;
+			else
+				throw new IllegalArgumentException("Unknown option " + args[a]);
+		}
+		WordNet wordnet = new WordNet(args[a], args[a + 1]);
+		Outcast outcast = new Outcast(wordnet);
+		List<String[]> sets = new ArrayList<String[]>();
+		List<String> names = new ArrayList<String>();
+		for (int t = a + 2; t < args.length; t++) {
+			if (!lines) {
+				sets.add(In.readStrings(args[t]));
+				names.add(args[t]);
+				continue;
+			}
+			In in = new In(args[t]);
+			for (int line = 1; in.hasNextLine(); line++) {
+				String text = in.readLine().trim();
+				if (text.length() > 0) {
+					sets.add(text.split("\\s+"));
+					names.add(args[t] + ":" + line);
+				}
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		String[] outcasts;
+		try {
+			outcasts = outcast.outcasts(sets, executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		for (int i = 0; i < outcasts.length; i++)
+			StdOut.println(names.get(i) + ": " + outcasts[i]);
+		System.err.printf("%d sets on %d threads in %.3f s (%.1f sets/s)\n",
+						  outcasts.length, threads, seconds,
+						  outcasts.length / seconds);
+	}
 
 }
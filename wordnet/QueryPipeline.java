@@ -0,0 +1,257 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac QueryPipeline.java
+ * Dependencies: none
+ *
+ * Batch mode for the SAP and WordNet test clients: answer a file of queries
+ * on several threads while reading and writing in the background.
+ *
+ ************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Answers a file of queries, one per line, with a <code>Handler</code>
+ * shared by several worker threads, and writes the answers, one per line, in
+ * the same order as the queries.
+ * <p>
+ * The main thread reads queries in batches, hands each batch to the workers
+ * and writes out finished batches in order. At most a few batches per worker
+ * are in flight, so memory use does not grow with the size of the file. At
+ * the end, throughput and per-query latency percentiles are reported on
+ * standard error. Latencies are counted in a fixed-size histogram rather than
+ * kept, so the percentiles are within about 6% of the exact ones.
+ * <p>
+ * Options, which the test clients accept after their usual arguments:
+ * <code>-batch queries.txt</code> turns on batch mode,
+ * <code>-threads n</code> sets the number of workers (default: one per core),
+ * and <code>-out answers.txt</code> writes answers to a file instead of
+ * standard output.
+ *
+ * @author William Schwartz
+ */
+class QueryPipeline {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BATCH = 1024;         // Queries per task.
+	private static final int BATCHES_PER_THREAD = 4; // Tasks in flight.
+	private final String queries;
+	private final String out;
+	private final int threads;
+	private final String[] positional;
+
+	/**
+	 * Answers one query. Must be safe to call from several threads at once.
+	 */
+	public interface Handler {
+		String answer(String query);
+	}
+
+	private QueryPipeline(String queries, String out, int threads,
+						  String[] positional) {
+		this.queries = queries;
+		this.out = out;
+		this.threads = threads;
+		this.positional = positional;
+	}
+
+	/**
+	 * Separate the batch options from a test client's other arguments.
+	 */
+	public static QueryPipeline parse(String[] args) {
+		String queries = null, out = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> positional = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-batch"))
+				queries = args[++i];
+			else if (args[i].equals("-out"))
+				out = args[++i];
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else
+				positional.add(args[i]);
+		}
+		return new QueryPipeline(queries, out, threads,
+								 positional.toArray(new String[0]));
+	}
+
+	/**
+	 * The arguments that were not batch options.
+	 */
+	public String[] args() { return positional.clone(); }
+
+	/**
+	 * Was batch mode requested?
+	 */
+	public boolean enabled() { return queries != null; }
+
+	/**
+	 * Answer every query in the file, then report statistics.
+	 */
+	public void run(Handler handler) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+		Latencies latencies = new Latencies();
+		long start = System.nanoTime();
+		int count = 0;
+		BufferedReader in = Files.newBufferedReader(Paths.get(queries), UTF8);
+		Writer w = out == null
+			? new BufferedWriter(new OutputStreamWriter(System.out, UTF8), 1 << 16)
+			: Files.newBufferedWriter(Paths.get(out), UTF8);
+		try {
+			String[] lines = new String[BATCH];
+			int n = 0;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (line.trim().length() == 0)
+					continue;
+				lines[n++] = line;
+				if (n == BATCH) {
+					if (inFlight.size() == threads * BATCHES_PER_THREAD)
+						count += write(inFlight.removeFirst(), w, latencies);
+					inFlight.addLast(pool.submit(new Batch(handler, lines, n)));
+					lines = new String[BATCH];
+					n = 0;
+				}
+			}
+			if (n > 0)
+				inFlight.addLast(pool.submit(new Batch(handler, lines, n)));
+			while (!inFlight.isEmpty())
+				count += write(inFlight.removeFirst(), w, latencies);
+		}
+		finally {
+			pool.shutdownNow();
+			in.close();
+			w.flush();
+			if (out != null)
+				w.close();
+		}
+		report(count, System.nanoTime() - start, latencies);
+	}
+
+	// Wait for a batch and write its answers. Returns the number of queries.
+	private static int write(Future<Batch> future, Writer w,
+							 Latencies latencies)
+		throws IOException, InterruptedException {
+		Batch b;
+		try {
+			b = future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		for (int i = 0; i < b.n; i++) {
+			w.write(b.answers[i]);
+			w.write('\n');
+			latencies.add(b.nanos[i]);
+		}
+		return b.n;
+	}
+
+	// Print queries per second and latency percentiles to standard error.
+	private static void report(int count, long nanos, Latencies latencies) {
+		System.err.printf("%d queries in %.3f s (%.1f queries/s)\n", count,
+						  nanos / 1e9, count / (nanos / 1e9));
+		if (count == 0)
+			return;
+		System.err.printf("latency (us): p50 %.1f  p90 %.1f  p99 %.1f  "
+						  + "p99.9 %.1f  max %.1f\n",
+						  latencies.percentile(0.50) / 1e3,
+						  latencies.percentile(0.90) / 1e3,
+						  latencies.percentile(0.99) / 1e3,
+						  latencies.percentile(0.999) / 1e3,
+						  latencies.max / 1e3);
+	}
+
+	/**
+	 * A histogram of nanosecond latencies in constant space. Each power of
+	 * two, from 16 ns up, is split into <code>SUB</code> equal buckets, so a
+	 * bucket is at most 1/<code>SUB</code> of its values wide; latencies
+	 * below <code>SUB</code> ns each get a bucket of their own. Only the
+	 * main thread records, so the counts are plain longs.
+	 */
+	private static class Latencies {
+		private static final int SHIFT = 4;
+		private static final int SUB = 1 << SHIFT;
+		private final long[] counts = new long[(64 - SHIFT + 1) * SUB];
+		private long count;
+		private long max;
+
+		// Count one latency.
+		void add(long nanos) {
+			counts[bucket(Math.max(0, nanos))]++;
+			count++;
+			max = Math.max(max, nanos);
+		}
+
+		// the bucket of a latency
+		private static int bucket(long nanos) {
+			if (nanos < SUB)
+				return (int) nanos;
+			int e = 63 - Long.numberOfLeadingZeros(nanos); // e >= SHIFT
+			int sub = (int) (nanos >>> (e - SHIFT)) & (SUB - 1);
+			return (e - SHIFT + 1) * SUB + sub;
+		}
+
+		// the largest latency in a bucket
+		private static long top(int bucket) {
+			if (bucket < SUB)
+				return bucket;
+			int shift = bucket / SUB - 1;
+			return ((long) (SUB + bucket % SUB + 1) << shift) - 1;
+		}
+
+		// The p-th quantile latency, rounded up to the top of its bucket but
+		// no more than the largest latency seen.
+		long percentile(double p) {
+			long rank = Math.max(1, (long) Math.ceil(p * count)), seen = 0;
+			for (int b = 0; b < counts.length; b++) {
+				seen += counts[b];
+				if (seen >= rank)
+					return Math.min(top(b), max);
+			}
+			return max;
+		}
+	}
+
+	// A batch of queries, answered on a worker thread.
+	private static class Batch implements Callable<Batch> {
+		private final Handler handler;
+		private final String[] answers;
+		private final long[] nanos;
+		private final int n;
+
+		Batch(Handler handler, String[] queries, int n) {
+			this.handler = handler;
+			this.answers = queries;
+			this.nanos = new long[n];
+			this.n = n;
+		}
+
+		// Replace each query with its answer, timing each one.
+		public Batch call() {
+			for (int i = 0; i < n; i++) {
+				long start = System.nanoTime();
+				answers[i] = handler.answer(answers[i]);
+				nanos[i] = System.nanoTime() - start;
+			}
+			return this;
+		}
+	}
+}
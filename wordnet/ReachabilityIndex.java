@@ -0,0 +1,168 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac ReachabilityIndex.java
+ * Dependencies: Digraph.java Hyponyms.java
+ *
+ * Answer "is there a path from v to w?" in a DAG without searching, using
+ * interval labels over a spanning forest.
+ *
+ ************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * Compressed transitive closure of a DAG, after Agrawal, Borgida and Jagadish,
+ * "Efficient Management of Transitive Relationships in Large Data and
+ * Knowledge Bases" (1989).
+ * <p>
+ * A depth first search backwards along the edges, from the sinks, numbers
+ * the vertices in postorder. The vertices that can reach <em>w</em> are then
+ * labeled by a few intervals of postorder numbers: the interval of
+ * <em>w</em>'s subtree in the search's spanning forest, plus the intervals
+ * inherited from vertices that reach <em>w</em> only through edges outside
+ * the forest, merged where they overlap or touch. So <em>v</em> reaches
+ * <em>w</em> if and only if <code>post[v]</code> lies in one of
+ * <em>w</em>'s intervals, which is a binary search over a usually tiny list.
+ * <p>
+ * In a tree every vertex has exactly one interval. Each edge outside the
+ * spanning forest adds at most one interval to each vertex that inherits it.
+ * Only for nearly tree-shaped graphs like WordNet's is the index a small
+ * multiple of the number of vertices. In a DAG where many vertices have
+ * several parents, intervals multiply down the graph, and the index can
+ * approach one interval per pair of vertices.
+ *
+ * @author William Schwartz
+ */
+class ReachabilityIndex {
+	private final int[] post;    // post[v] = postorder number of v
+	private final int[] first;   // v's intervals are first[v] to first[v+1]
+	private final int[] lo;      // lo[i] <= hi[i]: interval i, inclusive
+	private final int[] hi;
+
+	/**
+	 * Index the first V vertices of a DAG, ignoring any others. Uses time and
+	 * space linear in the size of the DAG plus the number of intervals.
+	 */
+	public ReachabilityIndex(Digraph G, int V) {
+		this(G, new Hyponyms(G, V));
+	}
+
+	/**
+	 * Index a DAG given its reverse adjacency lists, which determine the
+	 * number of vertices.
+	 */
+	public ReachabilityIndex(Digraph G, Hyponyms rev) {
+		int V = rev.V();
+		boolean[] sink = new boolean[V];
+		for (int v = 0; v < V; v++)
+			sink[v] = !G.adj(v).iterator().hasNext();
+
+		post = new int[V];
+		int[] low = new int[V];       // least postorder number in v's subtree
+		boolean[] marked = new boolean[V];
+		int[] stack = new int[V];     // vertices on the search path
+		int[] cursor = new int[V];    // next reverse edge of each to follow
+		int[] starts = new int[V + 1];
+		int[] los = new int[Math.max(16, V)], his = new int[los.length];
+		int[] ends = new int[V];      // end of each vertex's intervals in los
+		long[] scratch = new long[16];
+		int count = 0, n = 0;
+
+		for (int root = 0; root < V; root++) {
+			if (!sink[root] || marked[root])
+				continue;
+			int top = 0;
+			stack[top++] = root;
+			marked[root] = true;
+			low[root] = count;
+			cursor[root] = rev.first(root);
+			while (top > 0) {
+				int w = stack[top - 1];
+				if (cursor[w] < rev.first(w + 1)) {
+					int v = rev.get(cursor[w]++);
+					if (!marked[v]) {
+						marked[v] = true;
+						low[v] = count;
+						cursor[v] = rev.first(v);
+						stack[top++] = v;
+					}
+					continue;
+				}
+				// All of w's predecessors have finished: label w.
+				top--;
+				post[w] = count++;
+				int k = 0;
+				scratch[k++] = pack(low[w], post[w]);
+				for (int i = rev.first(w); i < rev.first(w + 1); i++) {
+					int v = rev.get(i);
+					for (int j = starts[v]; j < ends[v]; j++) {
+						if (los[j] >= low[w] && his[j] <= post[w])
+							continue; // Already inside w's subtree.
+						if (k == scratch.length)
+							scratch = Arrays.copyOf(scratch, 2 * k);
+						scratch[k++] = pack(los[j], his[j]);
+					}
+				}
+				if (k > 1)
+					Arrays.sort(scratch, 0, k);
+				starts[w] = n;
+				for (int i = 0; i < k; i++) {
+					int a = (int) (scratch[i] >>> 32), b = (int) scratch[i];
+					if (n > starts[w] && a <= his[n - 1] + 1) {
+						his[n - 1] = Math.max(his[n - 1], b);
+						continue;
+					}
+					if (n == los.length) {
+						los = Arrays.copyOf(los, 2 * n);
+						his = Arrays.copyOf(his, 2 * n);
+					}
+					los[n] = a;
+					his[n] = b;
+					n++;
+				}
+				ends[w] = n;
+			}
+		}
+
+		// Store the intervals in vertex order.
+		first = new int[V + 1];
+		for (int v = 0; v < V; v++)
+			first[v + 1] = first[v] + ends[v] - starts[v];
+		lo = new int[n];
+		hi = new int[n];
+		for (int v = 0; v < V; v++) {
+			System.arraycopy(los, starts[v], lo, first[v], ends[v] - starts[v]);
+			System.arraycopy(his, starts[v], hi, first[v], ends[v] - starts[v]);
+		}
+	}
+
+	// An interval packed so that longs sort by start.
+	private static long pack(int lo, int hi) {
+		return ((long) lo << 32) | (hi & 0xffffffffL);
+	}
+
+	/**
+	 * Is there a directed path from v to w? Every vertex reaches itself. Uses
+	 * time logarithmic in the number of w's intervals.
+	 */
+	public boolean reaches(int v, int w) {
+		int p = post[v];
+		int a = first[w], b = first[w + 1] - 1;
+		while (a <= b) {
+			int mid = (a + b) >>> 1;
+			if (p < lo[mid])
+				b = mid - 1;
+			else if (p > hi[mid])
+				a = mid + 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	// number of vertices indexed
+	public int V() { return post.length; }
+
+	// total number of intervals, for measuring the size of the index
+	public int intervals() { return lo.length; }
+}
@@ -2,12 +2,18 @@
  * Author: William Schwartz
  * Compliation: javac SAP.java
  * Testing: java SAP filename.txt
- * Dependencies: Digraph.java
+ *          java SAP filename.txt -batch queries.txt [-threads n] [-out file]
+ * Dependencies: Digraph.java Stack.java CachingBFS.java BitParallelBFS.java
+ *               SAPMetrics.java MappedDigraph.java ScratchPool.java
  *
  * Data type to calculate the shortest ancestral path in a digraph.
  *
  ************************************************************************/
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
 /**
  * Instances of <code>SAP</code> calculate shortest ancestral paths between two
  * verticies or two sets of verticies in a given digraph.
@@ -18,14 +24,59 @@
  * <p>
  * All methods (including the constructor) take time proportional to the sum of
  * the number of edges and verticies of the digraph with which the SAP was
- * constructed. Instances likewise take space linear in that sum.
+ * constructed. Instances likewise take space linear in that sum, per query
+ * running at once.
+ * <p>
+ * Instances are safe for concurrent queries from multiple threads. Each
+ * query borrows reusable BFS arrays from a pool shared by all threads, so
+ * they are reused even when every query runs on a new thread, as with
+ * virtual threads. Each set of arrays remembers the answer to the last query
+ * on single vertices or arrays made with it, so a thread calling
+ * <code>length()</code> and then <code>ancestor()</code> with the same
+ * arguments (or vice versa) usually searches the graph once.
+ * <code>query()</code> returns both at once.
+ * <p>
+ * An SAP may instead be constructed over a <code>MappedDigraph</code>, for
+ * graphs too large for the heap. It then uses the mapped file in place
+ * rather than copying it, and each query's BFS state is a hash table that
+ * grows with the part of the graph a query searches, not with the graph.
+ * The bulk <code>lengths()</code> methods, whose speed comes from arrays the
+ * size of the graph, fall back to one query per pair.
+ * <p>
+ * Every query records its latency and the vertices and edges its searches
+ * touched in the instance's <code>SAPMetrics</code>; see
+ * <code>metrics()</code>.
  *
  * @author William Schwartz
  */
 public class SAP {
-	private final Digraph g;
-	private final CachingBFS.CachedArrays vcache;
-	private final CachingBFS.CachedArrays wcache;
+	private Digraph g;  // g.V() is a capacity; vertices past V have no edges
+	private final MappedDigraph mapped; // Used instead of g if not null.
+	private int V;      // number of vertices in use
+	private int version; // incremented by every change to the graph
+	private final ScratchPool<Caches> caches = newPool();
+	private final SAPMetrics metrics = new SAPMetrics();
+
+	// BFS arrays for the v and w arguments of a query, and, made on first
+	// use, arrays for bulk queries. Borrowed from the pool for each query, so
+	// they are reused however many threads run queries.
+	private static class Caches {
+		private final CachingBFS.CachedArrays v;
+		private final CachingBFS.CachedArrays w;
+		private BitParallelBFS.Masks masks;
+		private int[] firstEvent;
+		// The last single or array query, its answer, and the graph version
+		// it was answered for.
+		private int[] lastV;
+		private int[] lastW;
+		private Result last;
+		private int lastVersion;
+
+		Caches(int size, boolean sparse) {
+			v = new CachingBFS.CachedArrays(size, sparse);
+			w = new CachingBFS.CachedArrays(size, sparse);
+		}
+	}
 
 	/**
 	 * Constructor.
@@ -35,35 +86,151 @@ public class SAP {
 	 */
 	public SAP(Digraph G) {
 		g = new Digraph(G); // Defensive copy.
-		vcache = new CachingBFS.CachedArrays(g.V());
-		wcache = new CachingBFS.CachedArrays(g.V());
+		V = g.V();
+		mapped = null;
 	}
 
-	// Return the min distance to a common node using the v/wcaches. -1 if none
-	// found.
-	private int min(CachingBFS pv, CachingBFS pw) {
-		int min, dist;
-		min = -1;
-		CachingBFS.CachedArrays[] its = {vcache, wcache};
-		for (Iterable<Integer> it : its) {
-			for (int node : it) {
-				if (pv.hasPathTo(node) && pw.hasPathTo(node)) {
-					dist = pv.distTo(node) + pw.distTo(node);
-					if (min < 0 || dist < min)
-						min = dist;
-				}
+	/**
+	 * Constructor for a digraph mapped from a file, which is used in place.
+	 * Heap use does not depend on the size of the digraph.
+	 */
+	public SAP(MappedDigraph G) {
+		mapped = G;
+		V = G.V();
+	}
+
+	// The digraph itself, not a copy, for WordNet. Do not modify. Its V() may
+	// exceed the number of vertices in use; the extra vertices have no edges.
+	Digraph graph() { return g; }
+
+	// A pool of BFS arrays, each sized for the graph as it was when made and
+	// dropped once the graph has grown past it.
+	private ScratchPool<Caches> newPool() {
+		return new ScratchPool<Caches>() {
+			protected Caches create() {
+				return new Caches(cacheSize(), mapped != null);
+			}
+			protected boolean fits(Caches c) { return c.v.size() == cacheSize(); }
+		};
+	}
+
+	private int cacheSize() { return mapped == null ? g.V() : V; }
+
+	// BFS from one vertex, or from a set of them, in whichever digraph this
+	// SAP uses.
+	private CachingBFS bfs(int s, CachingBFS.CachedArrays c) {
+		if (mapped == null)
+			return new CachingBFS(g, s, c);
+		return new CachingBFS(mapped, new int[] {s}, c);
+	}
+
+	private CachingBFS bfs(Iterable<Integer> sources, CachingBFS.CachedArrays c) {
+		if (mapped == null)
+			return new CachingBFS(g, sources, c);
+		int n = 0;
+		for (int s : sources)
+			n++;
+		int[] a = new int[n];
+		n = 0;
+		for (int s : sources)
+			a[n++] = s;
+		return new CachingBFS(mapped, a, c);
+	}
+
+	private CachingBFS bfs(int[] sources, CachingBFS.CachedArrays c) {
+		if (mapped == null)
+			return new CachingBFS(g, sources, c);
+		return new CachingBFS(mapped, sources, c);
+	}
+
+	// Answer a bulk query one pair at a time, for mapped digraphs. When both
+	// arguments are the same sets, each pair is only queried once and the
+	// diagonal is zero, as in lengths(int[][]).
+	private int[][] pairwise(int[][] vSets, int[][] wSets) {
+		boolean symmetric = vSets == wSets;
+		int[][] lengths = new int[vSets.length][wSets.length];
+		for (int i = 0; i < vSets.length; i++) {
+			for (int j = 0; j < wSets.length; j++) {
+				if (!symmetric)
+					lengths[i][j] = length(vSets[i], wSets[j]);
+				else if (j < i)
+					lengths[i][j] = lengths[j][i];
+				else if (j > i)
+					lengths[i][j] = length(vSets[i], wSets[j]);
 			}
 		}
-		return min;
+		return lengths;
 	}
 
-	// Return the min distance ancestor to a common node using the v/wcaches. -1
-	// if none found.
-	private int argmin(CachingBFS pv, CachingBFS pw) {
+	// Add a vertex with no edges and return its number. Grows the digraph's
+	// capacity by doubling, so adding vertices takes amortized constant time.
+	// Not safe to call while other threads are querying.
+	int addVertex() {
+		if (mapped != null)
+			throw new UnsupportedOperationException("Mapped digraph");
+		if (V == g.V())
+			g = copy(g, Math.max(16, 2 * V));
+		version++;
+		return V++;
+	}
+
+	// Add the edge v->w. Not safe to call while other threads are querying.
+	void addEdge(int v, int w) {
+		if (mapped != null)
+			throw new UnsupportedOperationException("Mapped digraph");
+		if (v >= V || w >= V)
+			throw new IndexOutOfBoundsException(v + "->" + w);
+		g.addEdge(v, w);
+		version++;
+	}
+
+	// A copy of G with room for capacity vertices, keeping each adjacency
+	// list in the same order.
+	static Digraph copy(Digraph G, int capacity) {
+		Digraph copy = new Digraph(capacity);
+		Stack<Integer> reverse = new Stack<Integer>();
+		for (int v = 0; v < G.V(); v++) {
+			for (int w : G.adj(v))
+				reverse.push(w);
+			while (!reverse.isEmpty())
+				copy.addEdge(v, reverse.pop());
+		}
+		return copy;
+	}
+
+	/**
+	 * Counters and latency histograms for this instance's queries.
+	 */
+	public SAPMetrics metrics() { return metrics; }
+
+	/**
+	 * The length of a shortest ancestral path and a common ancestor that
+	 * participates in it; both are -1 if there is no such path.
+	 */
+	public static class Result {
+		private final int length;
+		private final int ancestor;
+
+		Result(int length, int ancestor) {
+			this.length = length;
+			this.ancestor = ancestor;
+		}
+
+		public int length() { return length; }
+		public int ancestor() { return ancestor; }
+		public String toString() {
+			return "length = " + length + ", ancestor = " + ancestor;
+		}
+	}
+
+	// Return the min distance to a common node and the node, using the v/w
+	// caches. -1 and -1 if none found.
+	private Result scan(CachingBFS pv, CachingBFS pw, Caches c) {
+		traversed(pv, pw);
 		int min, dist, argmin;
 		argmin = -1;
 		min = -1;
-		CachingBFS.CachedArrays[] its = {vcache, wcache};
+		CachingBFS.CachedArrays[] its = {c.v, c.w};
 		for (Iterable<Integer> it : its) {
 			for (int node : it) {
 				if (pv.hasPathTo(node) && pw.hasPathTo(node)) {
@@ -75,34 +242,341 @@ public class SAP {
 				}
 			}
 		}
-		return argmin;
+		return new Result(min, argmin);
+	}
+
+	// Answer a query with BFS arrays borrowed from the pool.
+	private Result answer(int v, int w) {
+		Caches c = caches.borrow();
+		try {
+			return answer(v, w, c);
+		}
+		finally {
+			caches.release(c);
+		}
+	}
+
+	private Result answer(int[] v, int[] w) {
+		Caches c = caches.borrow();
+		try {
+			return answer(v, w, c);
+		}
+		finally {
+			caches.release(c);
+		}
+	}
+
+	private Result answer(Iterable<Integer> v, Iterable<Integer> w) {
+		Caches c = caches.borrow();
+		try {
+			return scan(bfs(v, c.v), bfs(w, c.w), c);
+		}
+		finally {
+			caches.release(c);
+		}
+	}
+
+	// Answer a query on single vertices or arrays of them, from the memo of
+	// the last query answered with these caches if that had the same
+	// arguments and the graph has not changed since, so that length() then
+	// ancestor() on the same arguments usually searches once. The memo keeps
+	// copies of the arguments.
+	private Result answer(int v, int w, Caches c) {
+		if (c.last != null && c.lastVersion == version && c.lastV.length == 1
+			&& c.lastW.length == 1 && c.lastV[0] == v && c.lastW[0] == w)
+			return c.last;
+		return remember(new int[] {v}, new int[] {w},
+						scan(bfs(v, c.v), bfs(w, c.w), c), c);
+	}
+
+	private Result answer(int[] v, int[] w, Caches c) {
+		if (c.last != null && c.lastVersion == version
+			&& Arrays.equals(c.lastV, v) && Arrays.equals(c.lastW, w))
+			return c.last;
+		Result r = scan(bfs(v, c.v), bfs(w, c.w), c);
+		return remember(v.clone(), w.clone(), r, c);
+	}
+
+	private Result remember(int[] v, int[] w, Result r, Caches c) {
+		c.lastV = v;
+		c.lastW = w;
+		c.last = r;
+		c.lastVersion = version;
+		return r;
+	}
+
+	// Add the work of two searches to the metrics.
+	private void traversed(CachingBFS pv, CachingBFS pw) {
+		metrics.traversed(pv.visited() + pw.visited(),
+						  pv.relaxed() + pw.relaxed());
 	}
 
 	// length of shortest ancestral path between v and w; -1 if no such path
 	public int length(int v, int w) {
-		return min(new CachingBFS(g, v, vcache), new CachingBFS(g, w, wcache));
+		long start = System.nanoTime();
+		int length = answer(v, w).length();
+		metrics.timed(SAPMetrics.Operation.LENGTH, start);
+		return length;
 	}
 
 	// a common ancestor of v and w that participates in a shortest ancestral
 	// path; -1 if no such path
 	public int ancestor(int v, int w) {
-		CachingBFS pv = new CachingBFS(g, v, vcache);
-		CachingBFS pw = new CachingBFS(g, w, wcache);
-		return argmin(pv, pw);
+		long start = System.nanoTime();
+		int ancestor = answer(v, w).ancestor();
+		metrics.timed(SAPMetrics.Operation.ANCESTOR, start);
+		return ancestor;
 	}
 
 	// length of shortest ancestral path between any vertex in v and any vertex
 	// in w; -1 if no such path. Iterables must contain at least one int.
 	public int length(Iterable<Integer> v, Iterable<Integer> w) {
-		return min(new CachingBFS(g, v, vcache), new CachingBFS(g, w, wcache));
+		long start = System.nanoTime();
+		int length = answer(v, w).length();
+		metrics.timed(SAPMetrics.Operation.LENGTH_SET, start);
+		return length;
 	}
 
 	// a common ancestor that participates in shortest ancestral path; -1 if no
 	// such path. Iterables must contain at least one int.
 	public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-		CachingBFS pv = new CachingBFS(g, v, vcache);
-		CachingBFS pw = new CachingBFS(g, w, wcache);
-		return argmin(pv, pw);
+		long start = System.nanoTime();
+		int ancestor = answer(v, w).ancestor();
+		metrics.timed(SAPMetrics.Operation.ANCESTOR_SET, start);
+		return ancestor;
+	}
+
+	// length of shortest ancestral path between any vertex in v and any vertex
+	// in w; -1 if no such path. Arrays must contain at least one int.
+	public int length(int[] v, int[] w) {
+		long start = System.nanoTime();
+		int length = answer(v, w).length();
+		metrics.timed(SAPMetrics.Operation.LENGTH_SET, start);
+		return length;
+	}
+
+	// a common ancestor that participates in shortest ancestral path; -1 if no
+	// such path. Arrays must contain at least one int.
+	public int ancestor(int[] v, int[] w) {
+		long start = System.nanoTime();
+		int ancestor = answer(v, w).ancestor();
+		metrics.timed(SAPMetrics.Operation.ANCESTOR_SET, start);
+		return ancestor;
+	}
+
+	// length of and ancestor on a shortest ancestral path between v and w,
+	// from one pair of searches
+	public Result query(int v, int w) {
+		long start = System.nanoTime();
+		Result r = answer(v, w);
+		metrics.timed(SAPMetrics.Operation.QUERY, start);
+		return r;
+	}
+
+	// length of and ancestor on a shortest ancestral path between any vertex
+	// in v and any vertex in w, from one pair of searches. Iterables must
+	// contain at least one int.
+	public Result query(Iterable<Integer> v, Iterable<Integer> w) {
+		long start = System.nanoTime();
+		Result r = answer(v, w);
+		metrics.timed(SAPMetrics.Operation.QUERY_SET, start);
+		return r;
+	}
+
+	// length of and ancestor on a shortest ancestral path between any vertex
+	// in v and any vertex in w, from one pair of searches. Arrays must contain
+	// at least one int.
+	public Result query(int[] v, int[] w) {
+		long start = System.nanoTime();
+		Result r = answer(v, w);
+		metrics.timed(SAPMetrics.Operation.QUERY_SET, start);
+		return r;
+	}
+
+	// length of shortest ancestral path between v and w if it is at most
+	// maxDist; -1 if there is no such path
+	public int lengthWithin(int v, int w, int maxDist) {
+		return lengthWithin(new int[] {v}, new int[] {w}, maxDist);
+	}
+
+	// length of shortest ancestral path between any vertex in v and any vertex
+	// in w if it is at most maxDist; -1 if there is no such path. Both
+	// searches stop at depth maxDist, since neither half of such a path is any
+	// longer, so the cost depends on the neighborhoods within maxDist of v and
+	// w rather than on everything they reach. Arrays must contain at least one
+	// int.
+	public int lengthWithin(int[] v, int[] w, int maxDist) {
+		if (maxDist < 0)
+			return -1;
+		long start = System.nanoTime();
+		Caches c = caches.borrow();
+		int length;
+		try {
+			CachingBFS pv, pw;
+			if (mapped == null) {
+				pv = new CachingBFS(g, v, maxDist, c.v);
+				pw = new CachingBFS(g, w, maxDist, c.w);
+			}
+			else {
+				pv = new CachingBFS(mapped, v, maxDist, c.v);
+				pw = new CachingBFS(mapped, w, maxDist, c.w);
+			}
+			length = scan(pv, pw, c).length();
+		}
+		finally {
+			caches.release(c);
+		}
+		metrics.timed(SAPMetrics.Operation.WITHIN, start);
+		return length <= maxDist ? length : -1;
+	}
+
+	// lengths of shortest ancestral paths between every pair of sets of
+	// vertices; a[i][j] == length(sets[i], sets[j]), or -1 if no such path.
+	// Runs one BFS per set instead of two per pair: each set's distances are
+	// kept sparsely, only for the vertices it reaches, and each pair is then
+	// scored by a scan of one set's reached vertices against the other's
+	// distances. Sets must contain at least one int.
+	public int[][] lengths(int[][] sets) {
+		validate(sets);
+		if (mapped != null)
+			return pairwise(sets, sets);
+		Caches c = caches.borrow();
+		try {
+			return lengths(sets, c);
+		}
+		finally {
+			caches.release(c);
+		}
+	}
+
+	private int[][] lengths(int[][] sets, Caches c) {
+		long start = System.nanoTime();
+		int k = sets.length;
+		CachingBFS.CachedArrays vcache = c.v;
+		CachingBFS.CachedArrays wcache = c.w;
+		int[][] reached = new int[k][];
+		int[][] dists = new int[k][];
+		for (int i = 0; i < k; i++) {
+			CachingBFS bfs = new CachingBFS(g, sets[i], wcache);
+			metrics.traversed(bfs.visited(), bfs.relaxed());
+			int n = 0;
+			for (int node : wcache)
+				n++;
+			reached[i] = new int[n];
+			dists[i] = new int[n];
+			n = 0;
+			for (int node : wcache) {
+				reached[i][n] = node;
+				dists[i][n++] = bfs.distTo(node);
+			}
+		}
+		int[][] lengths = new int[k][k];
+		boolean[] marked = vcache.marked();
+		int[] distTo = vcache.distTo();
+		for (int i = 0; i < k; i++) {
+			// Copy set i's distances into the dense vcache arrays.
+			vcache.clear();
+			for (int t = 0; t < reached[i].length; t++) {
+				marked[reached[i][t]] = true;
+				distTo[reached[i][t]] = dists[i][t];
+				vcache.markChanged(reached[i][t]);
+			}
+			for (int j = i + 1; j < k; j++) {
+				int min = -1, dist;
+				for (int t = 0; t < reached[j].length; t++) {
+					if (marked[reached[j][t]]) {
+						dist = distTo[reached[j][t]] + dists[j][t];
+						if (min < 0 || dist < min)
+							min = dist;
+					}
+				}
+				lengths[i][j] = min;
+				lengths[j][i] = min;
+			}
+		}
+		metrics.timed(SAPMetrics.Operation.BULK, start);
+		return lengths;
+	}
+
+	// lengths of shortest ancestral paths between each set of vertices in
+	// vSets and each set in wSets; a[i][j] == length(vSets[i], wSets[j]), or
+	// -1 if no such path. Sets must contain at least one int.
+	//
+	// Sets are traversed 64 at a time with BitParallelBFS. For each vertex
+	// reached from both a batch of v sets and a batch of w sets, every pairing
+	// of a v event with a w event at that vertex is a candidate common
+	// ancestor for all the (v set, w set) pairs in the events' masks.
+	//
+	// Every vertex is checked before the first traversal, since a traversal
+	// of one batch leaves the borrowed event chains set while the next runs.
+	public int[][] lengths(int[][] vSets, int[][] wSets) {
+		validate(vSets);
+		validate(wSets);
+		if (mapped != null)
+			return pairwise(vSets, wSets);
+		Caches c = caches.borrow();
+		try {
+			return lengths(vSets, wSets, c);
+		}
+		finally {
+			caches.release(c);
+		}
+	}
+
+	// Throw an IndexOutOfBoundsException if any set holds a non-vertex.
+	private void validate(int[][] sets) {
+		for (int[] set : sets)
+			for (int v : set)
+				if (v < 0 || v >= V)
+					throw new IndexOutOfBoundsException("Vertex " + v);
+	}
+
+	private int[][] lengths(int[][] vSets, int[][] wSets, Caches c) {
+		long start = System.nanoTime();
+		if (c.masks == null) {
+			c.masks = new BitParallelBFS.Masks(g.V());
+			c.firstEvent = new int[g.V()];
+			Arrays.fill(c.firstEvent, -1);
+		}
+		int[] first = c.firstEvent;
+		int[][] lengths = new int[vSets.length][wSets.length];
+		for (int[] row : lengths)
+			Arrays.fill(row, -1);
+		for (int vi = 0; vi < vSets.length; vi += BitParallelBFS.WIDTH) {
+			int vEnd = Math.min(vSets.length, vi + BitParallelBFS.WIDTH);
+			BitParallelBFS pv = new BitParallelBFS(g, vSets, vi, vEnd, c.masks);
+			metrics.traversed(pv.visited(), pv.relaxed());
+			// Chain pv's events by vertex: first[x] and then nextEvent[e].
+			int[] nextEvent = new int[pv.events()];
+			for (int e = 0; e < pv.events(); e++) {
+				nextEvent[e] = first[pv.vertex(e)];
+				first[pv.vertex(e)] = e;
+			}
+			for (int wi = 0; wi < wSets.length; wi += BitParallelBFS.WIDTH) {
+				int wEnd = Math.min(wSets.length, wi + BitParallelBFS.WIDTH);
+				BitParallelBFS pw = new BitParallelBFS(g, wSets, wi, wEnd,
+													   c.masks);
+				metrics.traversed(pw.visited(), pw.relaxed());
+				for (int f = 0; f < pw.events(); f++) {
+					int x = pw.vertex(f);
+					for (int e = first[x]; e >= 0; e = nextEvent[e]) {
+						int dist = pv.level(e) + pw.level(f);
+						for (long mv = pv.mask(e); mv != 0; mv &= mv - 1) {
+							int[] row = lengths[vi + Long.numberOfTrailingZeros(mv)];
+							for (long mw = pw.mask(f); mw != 0; mw &= mw - 1) {
+								int j = wi + Long.numberOfTrailingZeros(mw);
+								if (row[j] < 0 || dist < row[j])
+									row[j] = dist;
+							}
+						}
+					}
+				}
+			}
+			for (int e = 0; e < pv.events(); e++)
+				first[pv.vertex(e)] = -1;
+		}
+		metrics.timed(SAPMetrics.Operation.BULK, start);
+		return lengths;
 	}
 
 	/**
@@ -110,21 +584,47 @@ public class SAP {
 	 * command-line argument, constructs the digraph, reads in vertex pairs from
 	 * standard input, and prints out the length of the shortest ancestral path
 	 * between the two vertices and a common ancestor that participates in that
-	 * path
+	 * path. The file may also be a digraph converted by
+	 * <code>MappedDigraph</code>.
+	 * <p>
+	 * With <code>-batch queries.txt</code>, vertex pairs are read one per line
+	 * from that file instead and answered in parallel; see
+	 * <code>QueryPipeline</code> for the other batch options. Query metrics
+	 * are published through JMX while the client runs and printed to standard
+	 * error at the end of a batch.
 	 *
 	 * @author Alina Ene
 	 * @author Kevin Wayne
 	 */
-	public static void main(String[] args) {
-		In in = new In(args[0]);
-		Digraph G = new Digraph(in);
-		SAP sap = new SAP(G);
+	public static void main(String[] args) throws Exception {
+		QueryPipeline batch = QueryPipeline.parse(args);
+		final SAP sap;
+		Path file = Paths.get(batch.args()[0]);
+		if (MappedDigraph.accepts(file))
+			sap = new SAP(MappedDigraph.open(file));
+		else
+			sap = new SAP(new Digraph(new In(batch.args()[0])));
+		sap.metrics().register("SAP");
+		if (batch.enabled()) {
+			batch.run(new QueryPipeline.Handler() {
+				public String answer(String query) {
+					String[] vw = query.trim().split("\\s+");
+					return SAP.answer(sap, Integer.parseInt(vw[0]),
+								  Integer.parseInt(vw[1]));
+				}
+			});
+			System.err.println(sap.metrics().snapshot());
+			return;
+		}
 		while (!StdIn.isEmpty()) {
 			int v = StdIn.readInt();
 			int w = StdIn.readInt();
-			int length   = sap.length(v, w);
-			int ancestor = sap.ancestor(v, w);
-			StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
+			StdOut.println(answer(sap, v, w));
 		}
 	}
+
+	// The test client's output for one pair of vertices.
+	private static String answer(SAP sap, int v, int w) {
+		return sap.query(v, w).toString();
+	}
 }
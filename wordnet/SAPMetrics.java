@@ -0,0 +1,242 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac SAPMetrics.java
+ * Dependencies: SAPMetricsMBean.java
+ *
+ * Traversal counters and query latency histograms for SAP, readable as a
+ * snapshot or through JMX.
+ *
+ ************************************************************************/
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work an <code>SAP</code> does: vertices visited and edges relaxed
+ * by its breadth first searches, and, for each kind of query, how many there
+ * were and a histogram of how long they took.
+ * <p>
+ * Every counter is a <code>LongAdder</code>, which stripes its updates across
+ * cells under contention, so threads querying one SAP at once do not fight
+ * over a shared cache line. Reads sum the cells, so a snapshot taken during
+ * queries is not atomic, but each value in it is one the counter passed
+ * through.
+ * <p>
+ * Latencies go into power-of-two buckets of nanoseconds: bucket <em>b</em>
+ * holds latencies in [2<sup><em>b</em>-1</sup>, 2<sup><em>b</em></sup>).
+ *
+ * @author William Schwartz
+ */
+public class SAPMetrics implements SAPMetricsMBean {
+	/** The timed operations. */
+	public enum Operation {
+		LENGTH,        // length(int, int)
+		ANCESTOR,      // ancestor(int, int)
+		LENGTH_SET,    // length() of iterables or arrays
+		ANCESTOR_SET,  // ancestor() of iterables or arrays
+		QUERY,         // query(int, int)
+		QUERY_SET,     // query() of iterables or arrays
+		WITHIN,        // lengthWithin()
+		BULK           // lengths() of many sets at once
+	}
+
+	private static final int BUCKETS = 64;
+	private static final Operation[] OPERATIONS = Operation.values();
+	private final LongAdder visited = new LongAdder();
+	private final LongAdder relaxed = new LongAdder();
+	private final LongAdder[] counts = adders(OPERATIONS.length);
+	private final LongAdder[] nanos = adders(OPERATIONS.length);
+	private final LongAdder[][] histograms = new LongAdder[OPERATIONS.length][];
+
+	public SAPMetrics() {
+		for (int i = 0; i < OPERATIONS.length; i++)
+			histograms[i] = adders(BUCKETS);
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] a = new LongAdder[n];
+		for (int i = 0; i < n; i++)
+			a[i] = new LongAdder();
+		return a;
+	}
+
+	/**
+	 * Record the traversal work of one search.
+	 */
+	public void traversed(int vertices, int edges) {
+		visited.add(vertices);
+		relaxed.add(edges);
+	}
+
+	/**
+	 * Record one query of an operation that started at
+	 * <code>System.nanoTime()</code> value <em>start</em> and just finished.
+	 */
+	public void timed(Operation op, long start) {
+		long elapsed = Math.max(0, System.nanoTime() - start);
+		int i = op.ordinal();
+		counts[i].increment();
+		nanos[i].add(elapsed);
+		histograms[i][BUCKETS - Long.numberOfLeadingZeros(elapsed)].increment();
+	}
+
+	/**
+	 * A copy of the current counts.
+	 */
+	public Snapshot snapshot() { return new Snapshot(this); }
+
+	/**
+	 * Publish these metrics on the platform MBean server under
+	 * <code>SAP:type=SAPMetrics,name=</code><em>name</em>, replacing any
+	 * metrics already there. Returns the name registered.
+	 */
+	public ObjectName register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName =
+				new ObjectName("SAP:type=SAPMetrics,name=" + ObjectName.quote(name));
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			return objectName;
+		}
+		catch (JMException e) {
+			throw new IllegalArgumentException("Could not register " + name, e);
+		}
+	}
+
+	/**
+	 * Immutable copy of a <code>SAPMetrics</code>' counters.
+	 */
+	public static class Snapshot {
+		private final long visited;
+		private final long relaxed;
+		private final long[] counts = new long[OPERATIONS.length];
+		private final long[] nanos = new long[OPERATIONS.length];
+		private final long[][] histograms = new long[OPERATIONS.length][BUCKETS];
+
+		private Snapshot(SAPMetrics m) {
+			visited = m.visited.sum();
+			relaxed = m.relaxed.sum();
+			for (int i = 0; i < OPERATIONS.length; i++) {
+				counts[i] = m.counts[i].sum();
+				nanos[i] = m.nanos[i].sum();
+				for (int b = 0; b < BUCKETS; b++)
+					histograms[i][b] = m.histograms[i][b].sum();
+			}
+		}
+
+		// total vertices dequeued by searches
+		public long verticesVisited() { return visited; }
+
+		// total edges examined by searches
+		public long edgesRelaxed() { return relaxed; }
+
+		// number of queries of an operation
+		public long count(Operation op) { return counts[op.ordinal()]; }
+
+		// total time spent in queries of an operation, in nanoseconds
+		public long totalNanos(Operation op) { return nanos[op.ordinal()]; }
+
+		// the latency histogram of an operation
+		public long[] histogram(Operation op) {
+			return histograms[op.ordinal()].clone();
+		}
+
+		// mean latency of an operation in nanoseconds; 0 if there were none
+		public double mean(Operation op) {
+			long n = count(op);
+			return n == 0 ? 0 : (double) totalNanos(op) / n;
+		}
+
+		// Upper bound of the bucket holding the p-th quantile latency of an
+		// operation, in nanoseconds; 0 if there were no queries.
+		public long percentile(Operation op, double p) {
+			long[] h = histograms[op.ordinal()];
+			long n = count(op);
+			long rank = Math.max(1, (long) Math.ceil(p * n));
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += h[b];
+				if (seen >= rank)
+					return b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b;
+			}
+			return 0;
+		}
+
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append("vertices visited ").append(visited)
+				.append(", edges relaxed ").append(relaxed);
+			for (Operation op : OPERATIONS) {
+				if (count(op) == 0)
+					continue;
+				s.append(String.format("\n%-12s %10d queries  mean %.1f us  "
+									   + "p50 < %.1f us  p99 < %.1f us",
+									   op, count(op), mean(op) / 1e3,
+									   percentile(op, 0.50) / 1e3,
+									   percentile(op, 0.99) / 1e3));
+			}
+			return s.toString();
+		}
+	}
+
+	/* SAPMetricsMBean */
+
+	public long getVerticesVisited() { return visited.sum(); }
+
+	public long getEdgesRelaxed() { return relaxed.sum(); }
+
+	public String[] getOperations() {
+		String[] names = new String[OPERATIONS.length];
+		for (int i = 0; i < names.length; i++)
+			names[i] = OPERATIONS[i].name();
+		return names;
+	}
+
+	public long[] getQueryCounts() {
+		Snapshot s = snapshot();
+		long[] a = new long[OPERATIONS.length];
+		for (Operation op : OPERATIONS)
+			a[op.ordinal()] = s.count(op);
+		return a;
+	}
+
+	public double[] getMeanLatencyMicros() {
+		Snapshot s = snapshot();
+		double[] a = new double[OPERATIONS.length];
+		for (Operation op : OPERATIONS)
+			a[op.ordinal()] = s.mean(op) / 1e3;
+		return a;
+	}
+
+	public double[] getP50LatencyMicros() { return percentiles(0.50); }
+
+	public double[] getP99LatencyMicros() { return percentiles(0.99); }
+
+	private double[] percentiles(double p) {
+		Snapshot s = snapshot();
+		double[] a = new double[OPERATIONS.length];
+		for (Operation op : OPERATIONS)
+			a[op.ordinal()] = s.percentile(op, p) / 1e3;
+		return a;
+	}
+
+	public long[] latencyHistogram(String operation) {
+		return snapshot().histogram(Operation.valueOf(operation));
+	}
+
+	public void reset() {
+		visited.reset();
+		relaxed.reset();
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			counts[i].reset();
+			nanos[i].reset();
+			for (LongAdder bucket : histograms[i])
+				bucket.reset();
+		}
+	}
+}
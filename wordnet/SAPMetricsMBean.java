@@ -0,0 +1,49 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac SAPMetricsMBean.java
+ * Dependencies: none
+ *
+ * JMX management interface for SAPMetrics.
+ *
+ ************************************************************************/
+
+/**
+ * The attributes and operations of <code>SAPMetrics</code> that are published
+ * through JMX. Per-operation arrays are indexed like
+ * <code>getOperations()</code>. Latencies are estimated from power-of-two
+ * histogram buckets, so they are accurate to within a factor of two.
+ *
+ * @author William Schwartz
+ */
+public interface SAPMetricsMBean {
+	/** Total vertices dequeued by breadth first searches. */
+	long getVerticesVisited();
+
+	/** Total edges examined by breadth first searches. */
+	long getEdgesRelaxed();
+
+	/** Names of the timed operations. */
+	String[] getOperations();
+
+	/** Number of queries of each operation. */
+	long[] getQueryCounts();
+
+	/** Mean latency of each operation, in microseconds. */
+	double[] getMeanLatencyMicros();
+
+	/** Median latency of each operation, in microseconds. */
+	double[] getP50LatencyMicros();
+
+	/** 99th percentile latency of each operation, in microseconds. */
+	double[] getP99LatencyMicros();
+
+	/**
+	 * Latency histogram of an operation: element <em>b</em> counts queries
+	 * that took less than 2<sup><em>b</em></sup> but at least
+	 * 2<sup><em>b</em>-1</sup> nanoseconds.
+	 */
+	long[] latencyHistogram(String operation);
+
+	/** Zero every counter. */
+	void reset();
+}
@@ -0,0 +1,81 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac ScratchPool.java
+ * Dependencies: none
+ *
+ * Bounded pool of reusable per-query scratch objects, shared by all threads.
+ *
+ ************************************************************************/
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of scratch objects, such as search arrays as large as a graph, that
+ * a query borrows for its duration and then returns.
+ * <p>
+ * A <code>ThreadLocal</code> gives each thread its own scratch, which is only
+ * reused if the same thread runs many queries. With a new thread per query,
+ * as with virtual threads, every query would allocate and fill fresh arrays
+ * in time proportional to the graph. Borrowing from a pool instead makes
+ * reuse independent of threads: the number of objects made is the most
+ * queries ever running at once, not the number of threads.
+ * <p>
+ * The pool is lock free and last in, first out, so a thread running queries
+ * one after another keeps getting the same object back, warm in its cache.
+ * At most <em>capacity</em> idle objects are kept; any more returned are left
+ * to the garbage collector. Subclasses say how to make an object and whether
+ * an idle one is still usable (say, because the graph has since grown).
+ *
+ * @author William Schwartz
+ */
+abstract class ScratchPool<T> {
+	private final ConcurrentLinkedDeque<T> idle = new ConcurrentLinkedDeque<T>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final int capacity;
+
+	/**
+	 * A pool keeping at most capacity idle objects.
+	 */
+	public ScratchPool(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * A pool keeping up to two idle objects per available processor.
+	 */
+	public ScratchPool() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	// a new scratch object
+	protected abstract T create();
+
+	// Can an idle object still be used?
+	protected abstract boolean fits(T scratch);
+
+	/**
+	 * An idle object if there is a usable one, or else a new one. Give it
+	 * back with <code>release()</code> when done, and do not use it after.
+	 */
+	public T borrow() {
+		for (T t = idle.pollFirst(); t != null; t = idle.pollFirst()) {
+			size.decrementAndGet();
+			if (fits(t))
+				return t;
+		}
+		return create();
+	}
+
+	/**
+	 * Return a borrowed object to the pool, or drop it if the pool is full.
+	 */
+	public void release(T scratch) {
+		if (size.incrementAndGet() <= capacity)
+			idle.offerFirst(scratch);
+		else
+			size.decrementAndGet();
+	}
+}
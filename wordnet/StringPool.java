@@ -0,0 +1,90 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac StringPool.java
+ * Dependencies: none
+ *
+ * Immutable list of strings stored as UTF-8 bytes in one shared array.
+ *
+ ************************************************************************/
+
+import java.nio.charset.Charset;
+
+/**
+ * An immutable list of strings packed into a single byte array, with an
+ * <code>int</code> offset per string. Compared with a <code>String[]</code>,
+ * this saves the per-string object and array headers and stores ASCII text in
+ * one byte per character.
+ * <p>
+ * String <em>i</em> occupies <code>bytes[offsets[i]]</code> up to but not
+ * including <code>bytes[offsets[i+1]]</code>.
+ *
+ * @author William Schwartz
+ */
+class StringPool {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private final byte[] bytes;
+	private final int[] offsets;
+
+	/**
+	 * Wrap existing arrays, which must not be modified afterwards.
+	 * <code>offsets</code> has one more element than there are strings.
+	 */
+	public StringPool(byte[] bytes, int[] offsets) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Pack an array of strings.
+	 */
+	public static StringPool of(String[] strings) {
+		byte[][] encoded = new byte[strings.length][];
+		int[] offsets = new int[strings.length + 1];
+		for (int i = 0; i < strings.length; i++) {
+			encoded[i] = strings[i].getBytes(UTF8);
+			offsets[i + 1] = offsets[i] + encoded[i].length;
+		}
+		byte[] bytes = new byte[offsets[strings.length]];
+		for (int i = 0; i < strings.length; i++)
+			System.arraycopy(encoded[i], 0, bytes, offsets[i], encoded[i].length);
+		return new StringPool(bytes, offsets);
+	}
+
+	/**
+	 * Number of strings.
+	 */
+	public int size() { return offsets.length - 1; }
+
+	/**
+	 * Decode string <em>i</em>.
+	 */
+	public String get(int i) {
+		return new String(bytes, offsets[i], offsets[i + 1] - offsets[i], UTF8);
+	}
+
+	/**
+	 * Compare string <em>i</em> to a UTF-8 key as unsigned bytes, which is
+	 * the same as comparing code points. Returns a negative number, zero, or a
+	 * positive number as string <em>i</em> is less than, equal to, or greater
+	 * than the key.
+	 */
+	public int compare(int i, byte[] key) {
+		return compare(bytes, offsets[i], offsets[i + 1], key, 0, key.length);
+	}
+
+	// Compare a[aFrom..aTo) to b[bFrom..bTo) as unsigned bytes.
+	static int compare(byte[] a, int aFrom, int aTo, byte[] b, int bFrom,
+					   int bTo) {
+		for ( ; aFrom < aTo && bFrom < bTo; aFrom++, bFrom++) {
+			int cmp = (a[aFrom] & 0xff) - (b[bFrom] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return (aTo - aFrom) - (bTo - bFrom);
+	}
+
+	// The underlying arrays, for snapshots and for scanning strings without
+	// decoding them. Do not modify.
+	byte[] bytes() { return bytes; }
+	int[] offsets() { return offsets; }
+}
@@ -0,0 +1,226 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac SynsetFile.java
+ * Dependencies: StringPool.java
+ *
+ * Synsets and glosses read on demand from the lines of a memory mapped
+ * synsets file, instead of held on the heap.
+ *
+ ************************************************************************/
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The lines of a synsets CSV file, <code>id,synset,gloss</code>, mapped from
+ * the file and located by the byte offset of each line, indexed by id. Only
+ * the offsets live on the heap: a synset or gloss is decoded from the mapped
+ * bytes when asked for, and the operating system pages the text in and out as
+ * needed.
+ * <p>
+ * What is mapped is a private copy of the lines, not the file itself, so the
+ * file may be rewritten in place (to reload a WordNet from it, say) while
+ * this instance is still in use. The copy is made next to the file where
+ * possible, or else in the default temporary directory, and is deleted as
+ * soon as it is mapped; its disk space is freed when the mapping is garbage
+ * collected. The line positions must be those of the bytes copied, which
+ * <code>CsvLoader.synsets()</code> ensures by parsing the copy itself.
+ * <p>
+ * Recently used lines are kept decoded in a small direct-mapped cache, in
+ * which id <em>i</em> can only occupy slot <em>i</em> mod the cache size, so
+ * hot synsets (such as the ancestors near the root) cost no decoding. The
+ * cache takes no locks, so this class is safe to use from many threads at
+ * once without them contending.
+ * <p>
+ * The lines may be anywhere in the file, as in a snapshot section, and the
+ * file may exceed 2 GB: it is mapped in segments of 2<sup>30</sup> bytes, and
+ * a line may straddle two of them.
+ *
+ * @author William Schwartz
+ */
+class SynsetFile {
+	private static final int SEGMENT_SHIFT = 30;  // log2 of bytes per segment
+	private static final int CACHE_SIZE = 4096;   // a power of two
+	private final MappedByteBuffer[] segments;
+	private final long position;  // where in the file segments[0] starts
+	private final long end;       // where in the file the mapping ends
+	private final long[] lines;   // file position of each id's line
+	private final AtomicReferenceArray<Entry> cache =
+		new AtomicReferenceArray<Entry>(CACHE_SIZE);
+
+	// A decoded line. Final fields, so an entry is safely published by the
+	// cache even when read without synchronization.
+	private static class Entry {
+		private final int id;
+		private final String synset;
+		private final String gloss;
+
+		Entry(int id, String synset, String gloss) {
+			this.id = id;
+			this.synset = synset;
+			this.gloss = gloss;
+		}
+	}
+
+	private SynsetFile(MappedByteBuffer[] segments, long position, long end,
+					   long[] lines) {
+		this.segments = segments;
+		this.position = position;
+		this.end = end;
+		this.lines = lines;
+	}
+
+	/**
+	 * Map a private copy of the given bytes of an open file, which hold lines
+	 * starting at the given file positions. The file's path only says where
+	 * to put the copy.
+	 */
+	public static SynsetFile open(FileChannel channel, Path file, long position,
+								  long bytes, long[] lines) throws IOException {
+		Path copy = copy(channel, file, position, bytes);
+		try {
+			return map(copy, position, bytes, lines);
+		}
+		finally {
+			delete(copy);
+		}
+	}
+
+	/**
+	 * Map a copy made by <code>copy()</code>, whose first byte was at the
+	 * given position in the original file, and where the lines start at the
+	 * given original positions. The copy can be deleted once this returns.
+	 */
+	static SynsetFile map(Path copy, long position, long bytes, long[] lines)
+		throws IOException {
+		FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ);
+		try {
+			long segment = 1L << SEGMENT_SHIFT;
+			int n = (int) Math.max(1, (bytes + segment - 1) >>> SEGMENT_SHIFT);
+			MappedByteBuffer[] segments = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				long start = i * segment;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+										  Math.min(segment, bytes - start));
+			}
+			return new SynsetFile(segments, position, position + bytes, lines);
+		}
+		finally {
+			channel.close(); // Mappings stay valid after the channel closes.
+		}
+	}
+
+	/**
+	 * Copy bytes of an open file, starting at position, into a new temporary
+	 * file next to it, or in the default temporary directory if that fails.
+	 */
+	static Path copy(FileChannel in, Path file, long position, long bytes)
+		throws IOException {
+		Path copy;
+		try {
+			copy = Files.createTempFile(file.toAbsolutePath().getParent(),
+										".synsets", ".tmp");
+		}
+		catch (IOException e) {
+			copy = Files.createTempFile("synsets", ".tmp");
+		}
+		try {
+			FileChannel out = FileChannel.open(copy, StandardOpenOption.WRITE);
+			try {
+				for (long done = 0; done < bytes; ) {
+					long n = in.transferTo(position + done, bytes - done, out);
+					if (n <= 0)
+						throw new IOException(file + " is shorter than expected");
+					done += n;
+				}
+			}
+			finally {
+				out.close();
+			}
+			return copy;
+		}
+		catch (IOException e) {
+			delete(copy);
+			throw e;
+		}
+	}
+
+	/**
+	 * Delete a copy. Its mapping, if any, keeps the data until it is garbage
+	 * collected; where mapped files cannot be deleted, delete it on exit.
+	 */
+	static void delete(Path copy) {
+		try {
+			Files.deleteIfExists(copy);
+		}
+		catch (IOException e) {
+			copy.toFile().deleteOnExit();
+		}
+	}
+
+	// number of synsets
+	public int size() { return lines.length; }
+
+	/**
+	 * The synset with the given id: its second column.
+	 */
+	public String synset(int id) { return entry(id).synset; }
+
+	/**
+	 * The gloss of the synset with the given id: everything after its second
+	 * column, which may include commas.
+	 */
+	public String gloss(int id) { return entry(id).gloss; }
+
+	// The synset and gloss of a line, decoded through the cache. A miss
+	// overwrites whatever line held the slot.
+	private Entry entry(int id) {
+		int slot = id & (CACHE_SIZE - 1);
+		Entry e = cache.get(slot);
+		if (e == null || e.id != id) {
+			byte[] line = line(id);
+			int a = Math.min(comma(line, 0) + 1, line.length); // Skip the id.
+			int b = comma(line, a);
+			e = new Entry(id, new String(line, a, b - a, StringPool.UTF8),
+						  b < line.length
+						  ? new String(line, b + 1, line.length - b - 1,
+									   StringPool.UTF8)
+						  : "");
+			cache.set(slot, e);
+		}
+		return e;
+	}
+
+	// index of the first comma in line at or after from, or its length
+	private static int comma(byte[] line, int from) {
+		while (from < line.length && line[from] != ',')
+			from++;
+		return from;
+	}
+
+	/**
+	 * The undecoded bytes of the line of the given id, without its line
+	 * terminator.
+	 */
+	public byte[] line(int id) {
+		long from = lines[id], to = from;
+		while (to < end && get(to) != '\n' && get(to) != '\r')
+			to++;
+		byte[] line = new byte[(int) (to - from)];
+		for (int i = 0; i < line.length; i++)
+			line[i] = get(from + i);
+		return line;
+	}
+
+	// the byte at a file position
+	private byte get(long at) {
+		at -= position;
+		return segments[(int) (at >>> SEGMENT_SHIFT)]
+			.get((int) (at & ((1 << SEGMENT_SHIFT) - 1)));
+	}
+}
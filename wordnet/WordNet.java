@@ -2,32 +2,82 @@
  * Author: William Schwartz
  * Compliation: javac WordNet.java
  * Execution: java WordNet synsets.csv hypernyms.csv
- * Dependencies: In.java StdOut.java
+ * Dependencies: CsvLoader.java NounIndex.java OnlineTopological.java SAP.java
+ *               SynsetFile.java Hyponyms.java ReachabilityIndex.java Queue.java
+ *               SAPMetrics.java ScratchPool.java StdOut.java
+ * Snapshots: java WordNet synsets.csv hypernyms.csv snapshot.bin
+ *            java WordNet snapshot.bin
  *
- * Immutable datatype that models the WordNet of the is-a relationship. Nodes
+ * Datatype that models the WordNet of the is-a relationship. Nodes
  * in the graph are synonym sets ("synsets") and edges point from hyponyms to
  * hypernyms (a hyponym is an example of its hypernym). The graph is directed
  * and acyclic.
  *
  ************************************************************************/
 
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 
 /**
- * The <code>WordNet</code> class immutably represnts a WordNet graph of
- * synonym sets ("synsets") and their is-a relationships from hyponyms to
- * hypernyms. The graph is directed and acyclic.
+ * The <code>WordNet</code> class represnts a WordNet graph of synonym sets
+ * ("synsets") and their is-a relationships from hyponyms to hypernyms. The
+ * graph is directed and acyclic.
  * <p>
- * Uses space linear in the input size.
+ * Queries are safe to run from many threads at once. The graph can grow by
+ * <code>addSynset()</code> and <code>addHypernym()</code>, which check that it
+ * stays a rooted DAG without revalidating the whole graph, but which must not
+ * run concurrently with any other method.
+ * <p>
+ * Uses space linear in the input size, plus, from the first call to
+ * <code>isA()</code>, a reachability index. That index is about as large as
+ * the graph when the graph is nearly a tree, as WordNet's is, but it can grow
+ * quadratically in the number of synsets when many synsets have several
+ * hypernyms.
  * @author William Schwartz
  */
 public class WordNet {
+	// Snapshot file header: "WNET" and a format version.
+	private static final int SNAPSHOT_MAGIC = 0x574e4554;
+	private static final int SNAPSHOT_VERSION = 4;
+	private static final int INFINITY = Integer.MAX_VALUE;
 	private final SAP paths;
-	private final HashMap<Integer, String> id2synset;
-	private final HashMap<String, Bag<Integer>> noun2ids;
+	private final SynsetFile id2synset; // Read lazily from a mapped copy.
+	private final NounIndex noun2ids;
+	private final ArrayList<String> addedSynsets = new ArrayList<String>();
+	private int[] rank;   // rank[v] = position in a topological order
+	private int[] depth;  // depth[v] = length of shortest path from v to root
+	private OnlineTopological order; // Made by the first mutation.
+	private Hyponyms hyponyms;       // Rebuilt on demand after mutations.
+	// Built by the first isA() after construction or a mutation, not up front,
+	// since it can be far larger and slower to build than everything else.
+	private volatile ReachabilityIndex reach;
+	private final ScratchPool<NearestScratch> nearestScratch =
+		new ScratchPool<NearestScratch>() {
+			protected NearestScratch create() { return new NearestScratch(size()); }
+			protected boolean fits(NearestScratch m) {
+				return m.up.length == size();
+			}
+		};
 
 	/** Create a WordNet from a synsets and a hypernyms CSV file. Uses time
-	 * linearithmic with the input size.
+	 * linearithmic with the input size. Both files are parsed on all available
+	 * cores.
 	 * <p>
 	 * The synsets CSV file has columns <ol><li>the synset id integer, <li>the
 	 * space-separated list of synonyms (inside a synonym, a space is replaced
@@ -36,6 +86,10 @@ public class WordNet {
 	 * The hypernyms CSV file's first column is a synset ID followed by a
 	 * comma-separated list of synset IDs that are hypernyms for the ID in the
 	 * first column.
+	 * <p>
+	 * The synsets and glosses are not kept on the heap, but read when needed
+	 * from a memory mapped private copy of the synsets file, so the file may
+	 * be changed or replaced as soon as the constructor returns.
 	 *
 	 * @param synsets   the name of the CSV file containing the synsets
 	 * @param hypernyms the name of the CSV file containing the hypernyms
@@ -43,90 +97,567 @@ public class WordNet {
 	 * rooted DAG.
 	 */
 	public WordNet(String synsets, String hypernyms) {
-		id2synset = new HashMap<Integer, String>();
-		noun2ids = new HashMap<String, Bag<Integer>>();
-		buildSynsets(synsets);
+		CsvLoader.Synsets csv = CsvLoader.synsets(synsets);
+		noun2ids = NounIndex.of(csv.synsets);
+		id2synset = csv.file;
 		paths = new SAP(buildHypernyms(hypernyms, id2synset.size()));
+		hyponyms = new Hyponyms(paths.graph(), size());
 	}
 
-	// Read synsets files. Prepare mappings among synsets, ids, and words.
-	private void buildSynsets(String synsets) {
-		In file = new In(synsets);
-		String[] line;
-		int id;
-		Bag<Integer> bag;
-		while (!file.isEmpty()) {
-			line = file.readLine().split(",");
-			id = Integer.parseInt(line[0]);
-			id2synset.put(id, line[1]);
-			for (String noun : line[1].split(" ")) {
-				bag = noun2ids.get(noun);
-				if (bag == null) {
-					bag = new Bag<Integer>();
-					bag.add(id);
-					noun2ids.put(noun, bag);
-				}
-				else {
-					bag.add(id);
+	// Used by load() with structures that were validated before being saved.
+	private WordNet(SynsetFile id2synset, NounIndex noun2ids, Digraph g,
+					int[] rank, int[] depth) {
+		this.id2synset = id2synset;
+		this.noun2ids = noun2ids;
+		this.rank = rank;
+		this.depth = depth;
+		paths = new SAP(g);
+		hyponyms = new Hyponyms(g, size());
+	}
+
+	// Read hypernyms digraph. Check that it is a rooted DAG with one pass of
+	// Kahn's algorithm that starts from the roots and follows edges backwards,
+	// from hypernyms to hyponyms. A synset is dequeued once all its hypernyms
+	// have been, so the same pass records each synset's topological rank and
+	// its depth (distance to the root).
+	private Digraph buildHypernyms(String hypernyms, int V) {
+		Digraph g = new Digraph(V);
+		int[] edges = CsvLoader.hypernyms(hypernyms);
+		// The reverse edges, as hyponyms[start[w]] up to hyponyms[start[w+1]].
+		int[] outdegree = new int[V];
+		int[] start = new int[V + 1];
+		for (int i = 0; i < edges.length; i += 2) {
+			g.addEdge(edges[i], edges[i + 1]);
+			outdegree[edges[i]]++;
+			start[edges[i + 1] + 1]++;
+		}
+		for (int w = 0; w < V; w++)
+			start[w + 1] += start[w];
+		int[] hyponyms = new int[edges.length / 2];
+		int[] next = Arrays.copyOf(start, V);
+		for (int i = 0; i < edges.length; i += 2)
+			hyponyms[next[edges[i + 1]]++] = edges[i];
+
+		rank = new int[V];
+		depth = new int[V];
+		int[] queue = new int[V];
+		int head = 0, tail = 0, numRoots = 0;
+		for (int v = 0; v < V; v++) {
+			depth[v] = INFINITY;
+			if (outdegree[v] == 0) {
+				queue[tail++] = v;
+				depth[v] = 0;
+				numRoots++;
+			}
+		}
+		while (head < tail) {
+			int w = queue[head];
+			// The root ranks last, so that rank[v] < rank[w] for every v->w.
+			rank[w] = V - 1 - head++;
+			for (int i = start[w]; i < start[w + 1]; i++) {
+				int v = hyponyms[i];
+				depth[v] = Math.min(depth[v], depth[w] + 1);
+				if (--outdegree[v] == 0)
+					queue[tail++] = v;
+			}
+		}
+		if (tail < V) // Synsets on or above a cycle are never dequeued.
+			throw new IllegalArgumentException(hypernyms
+											   + " does not represent a DAG");
+		if (numRoots != 1)
+			throw new IllegalArgumentException(hypernyms + " is not rooted.");
+		return g;
+	}
+
+	/**
+	 * Write a binary snapshot of this WordNet to a file, which
+	 * <code>load()</code> can read back without reparsing the CSV files or
+	 * revalidating the graph. Uses time and space linear in the size of the
+	 * WordNet.
+	 * <p>
+	 * The snapshot is a header followed by four sections of big-endian
+	 * integers and UTF-8 bytes: the synsets, the noun index, the hypernym
+	 * adjacency lists, and each synset's rank and depth. The synsets section
+	 * is the offset of each line followed by the lines of a synsets CSV file,
+	 * glosses and all, which <code>load()</code> maps rather than reads. The
+	 * noun index is the arrays of the <code>NounIndex</code> verbatim. Byte
+	 * sections are padded to a multiple of four so that every integer section
+	 * is aligned.
+	 * <p>
+	 * The snapshot is written to a new file in the same directory, forced to
+	 * disk, and then renamed over the target in one atomic step. Whoever opens
+	 * the target, even after a crash, sees either the whole old snapshot or
+	 * the whole new one, never part of one.
+	 *
+	 * @param file where to write the snapshot; replaced if it exists, which
+	 *             it may even if it is the snapshot this WordNet was loaded
+	 *             from
+	 */
+	public void save(Path file) throws IOException {
+		Path tmp = createSibling(file);
+		boolean saved = false;
+		try {
+			FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			try {
+				DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel),
+											 1 << 16));
+				write(out);
+				out.flush();
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE,
+					   StandardCopyOption.REPLACE_EXISTING);
+			saved = true;
+		}
+		finally {
+			if (!saved)
+				try {
+					Files.deleteIfExists(tmp);
 				}
+				catch (IOException e) { }
+		}
+	}
+
+	// A new empty file, hidden and uniquely named, in the directory of file.
+	// Unlike Files.createTempFile(), its permissions are the usual ones for a
+	// new file, so the snapshot renamed from it is as readable as before.
+	private static Path createSibling(Path file) throws IOException {
+		file = file.toAbsolutePath();
+		String prefix = "." + file.getFileName() + ".";
+		while (true) {
+			Path sibling = file.resolveSibling(
+				prefix + Long.toHexString(System.nanoTime()) + ".tmp");
+			try {
+				return Files.createFile(sibling);
 			}
+			catch (FileAlreadyExistsException e) { } // Try another name.
 		}
 	}
 
-	// Read hypernyms digraph
-	private Digraph buildHypernyms(String hypernyms, int numSynsets) {
-		Digraph g = new Digraph(numSynsets);
-		In file = new In(hypernyms);
-		String[] line;
-		int id;
-		while (!file.isEmpty()) {
-			line = file.readLine().split(",");
-			id = Integer.parseInt(line[0]);
-			for (int i = 1; i < line.length; i++)
-				g.addEdge(id, Integer.parseInt(line[i]));
+	// Write the snapshot described by save().
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(SNAPSHOT_VERSION);
+		NounIndex nouns = noun2ids;
+		if (!addedSynsets.isEmpty()) {
+			// Fold added nouns into fresh arrays.
+			String[] all = new String[size()];
+			for (int id = 0; id < all.length; id++)
+				all[id] = synset(id);
+			nouns = NounIndex.of(StringPool.of(all));
 		}
-		detectCycles(g, hypernyms);
-		detectRootedness(g, hypernyms);
-		return g;
+		writeLines(out);
+		writeStrings(out, nouns.pool());
+		writeInts(out, nouns.postingOffsets());
+		writeInts(out, nouns.postings());
+		Digraph g = paths.graph();
+		int[] adjOffsets = new int[size() + 1];
+		for (int v = 0; v < size(); v++) {
+			adjOffsets[v + 1] = adjOffsets[v];
+			for (int w : g.adj(v))
+				adjOffsets[v + 1]++;
+		}
+		writeInts(out, adjOffsets);
+		for (int v = 0; v < size(); v++)
+			for (int w : g.adj(v))
+				out.writeInt(w);
+		int[] ranks = new int[size()];
+		for (int v = 0; v < size(); v++)
+			ranks[v] = rank(v);
+		writeInts(out, ranks);
+		writeInts(out, Arrays.copyOf(depth, size()));
+	}
+
+	// Write a length-prefixed array of ints.
+	private static void writeInts(DataOutputStream out, int[] a)
+		throws IOException {
+		out.writeInt(a.length);
+		for (int x : a)
+			out.writeInt(x);
+	}
+
+	// Write each synset's line, terminated by a newline, preceded by the
+	// offset of each line and padded like writeStrings().
+	private void writeLines(DataOutputStream out) throws IOException {
+		int[] offsets = new int[size() + 1];
+		for (int id = 0; id < size(); id++)
+			offsets[id + 1] = offsets[id] + line(id).length + 1;
+		writeInts(out, offsets);
+		for (int id = 0; id < size(); id++) {
+			out.write(line(id));
+			out.writeByte('\n');
+		}
+		for (int pad = offsets[size()]; pad % 4 != 0; pad++)
+			out.writeByte(0);
+	}
+
+	// The synsets file line of a synset. Added synsets have no gloss.
+	private byte[] line(int id) {
+		if (id < id2synset.size())
+			return id2synset.line(id);
+		return (id + "," + synset(id) + ",").getBytes(StringPool.UTF8);
 	}
 
-	private void detectCycles(Digraph g, String hypernyms) {
-		DirectedCycle dc = new DirectedCycle(g);
-		if (dc.hasCycle()) {
-			String msg = hypernyms + " does not represent a DAG";
+	// Write strings as an offsets array followed by a padded pool of their
+	// concatenated UTF-8 bytes.
+	private static void writeStrings(DataOutputStream out, StringPool strings)
+		throws IOException {
+		int[] offsets = strings.offsets();
+		writeInts(out, offsets);
+		out.write(strings.bytes(), 0, offsets[offsets.length - 1]);
+		for (int pad = offsets[offsets.length - 1]; pad % 4 != 0; pad++)
+			out.writeByte(0);
+	}
+
+	/**
+	 * Read a WordNet from a snapshot written by <code>save()</code>. The file
+	 * is memory mapped and its integer sections are bulk copied straight into
+	 * the in-heap structures. The synsets and glosses are copied to a private
+	 * mapped file and read when needed, so the snapshot may be changed or
+	 * replaced as soon as this returns. Uses time linear in the size of the
+	 * WordNet, without any text parsing or graph validation.
+	 * <p>
+	 * Every section's length and offsets are checked against the bytes that
+	 * remain, and every synset id against the number of synsets, so a
+	 * truncated or damaged file is rejected rather than read past its end.
+	 *
+	 * @param file a snapshot written by <code>save()</code>
+	 * @throws java.lang.IllegalArgumentException if the file is not a
+	 * WordNet snapshot, or is truncated or corrupt.
+	 */
+	public static WordNet load(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		ByteBuffer buf;
+		SynsetFile id2synset;
+		try {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.remaining() < 8 || buf.getInt() != SNAPSHOT_MAGIC
+				|| buf.getInt() != SNAPSHOT_VERSION)
+				throw new IllegalArgumentException(file + " is not a snapshot");
+			id2synset = readLines(buf, channel, file);
+		}
+		catch (BufferUnderflowException e) {
+			throw corrupt(file, e);
+		}
+		catch (IndexOutOfBoundsException e) {
+			throw corrupt(file, e);
+		}
+		finally {
+			channel.close(); // Mappings stay valid after the channel closes.
+		}
+		try {
+			return load(buf, id2synset);
+		}
+		catch (BufferUnderflowException e) {
+			throw corrupt(file, e);
+		}
+		catch (IndexOutOfBoundsException e) {
+			throw corrupt(file, e);
+		}
+	}
+
+	// Read the sections after the synsets. A section too long for the bytes
+	// left throws BufferUnderflowException, and an offset or id out of range
+	// throws IndexOutOfBoundsException.
+	private static WordNet load(ByteBuffer buf, SynsetFile id2synset) {
+		int V = id2synset.size();
+		StringPool nouns = readStrings(buf);
+		int[] postingOffsets = readInts(buf);
+		int[] postings = readInts(buf);
+		checkOffsets(postingOffsets, nouns.size() + 1, postings.length);
+		checkIds(postings, V);
+		NounIndex noun2ids = new NounIndex(nouns, postingOffsets, postings);
+
+		int[] adjOffsets = readInts(buf);
+		checkOffsets(adjOffsets, V + 1, buf.remaining() / 4);
+		int[] targets = readInts(buf, adjOffsets[V]);
+		checkIds(targets, V);
+		Digraph g = new Digraph(V);
+		for (int v = 0; v < g.V(); v++)
+			for (int i = adjOffsets[v + 1] - 1; i >= adjOffsets[v]; i--)
+				g.addEdge(v, targets[i]);
+		int[] rank = readInts(buf);
+		int[] depth = readInts(buf);
+		if (rank.length != V || depth.length != V)
+			throw new IndexOutOfBoundsException("rank or depth is not per synset");
+		return new WordNet(id2synset, noun2ids, g, rank, depth);
+	}
+
+	// The exception load() throws for a file that does not hold together.
+	private static IllegalArgumentException corrupt(Path file, Exception e) {
+		return new IllegalArgumentException(file + " is truncated or corrupt", e);
+	}
+
+	// Bulk read a length-prefixed array of ints.
+	private static int[] readInts(ByteBuffer buf) {
+		return readInts(buf, buf.getInt());
+	}
+
+	// Bulk read n ints.
+	private static int[] readInts(ByteBuffer buf, int n) {
+		if (n < 0 || n > buf.remaining() / 4)
+			throw new BufferUnderflowException();
+		int[] a = new int[n];
+		IntBuffer ints = buf.asIntBuffer();
+		ints.get(a);
+		buf.position(buf.position() + 4 * n);
+		return a;
+	}
+
+	// Check that offsets has the given length, at least one, and runs from 0
+	// up to at most limit without decreasing.
+	private static void checkOffsets(int[] offsets, int length, int limit) {
+		if (length < 1 || offsets.length != length || offsets[0] != 0)
+			throw new IndexOutOfBoundsException("bad offsets");
+		for (int i = 1; i < length; i++)
+			if (offsets[i] < offsets[i - 1])
+				throw new IndexOutOfBoundsException("offsets decrease");
+		if (offsets[length - 1] > limit)
+			throw new IndexOutOfBoundsException("offsets past " + limit);
+	}
+
+	// Check that every id is a synset id, below V.
+	private static void checkIds(int[] ids, int V) {
+		for (int id : ids)
+			if (id < 0 || id >= V)
+				throw new IndexOutOfBoundsException("no synset " + id);
+	}
+
+	// Skip the padding after a byte section of the given length.
+	private static void pad(ByteBuffer buf, int bytes) {
+		int pad = (4 - bytes % 4) % 4;
+		if (pad > buf.remaining())
+			throw new BufferUnderflowException();
+		buf.position(buf.position() + pad);
+	}
+
+	// Map the lines written by writeLines() and skip past them.
+	private static SynsetFile readLines(ByteBuffer buf, FileChannel channel,
+										Path file) throws IOException {
+		int[] offsets = readInts(buf);
+		checkOffsets(offsets, offsets.length, buf.remaining());
+		int n = offsets.length - 1, start = buf.position();
+		long[] lines = new long[n];
+		for (int id = 0; id < n; id++)
+			lines[id] = start + offsets[id];
+		buf.position(start + offsets[n]);
+		pad(buf, offsets[n]);
+		return SynsetFile.open(channel, file, start, offsets[n], lines);
+	}
+
+	// Read strings written by writeStrings().
+	private static StringPool readStrings(ByteBuffer buf) {
+		int[] offsets = readInts(buf);
+		checkOffsets(offsets, offsets.length, buf.remaining());
+		byte[] bytes = new byte[offsets[offsets.length - 1]];
+		buf.get(bytes);
+		pad(buf, bytes.length);
+		return new StringPool(bytes, offsets);
+	}
+
+	// Number of synsets, including added ones.
+	private int size() { return id2synset.size() + addedSynsets.size(); }
+
+	// The synset with a given id.
+	private String synset(int id) {
+		if (id < id2synset.size())
+			return id2synset.synset(id);
+		return addedSynsets.get(id - id2synset.size());
+	}
+
+	/**
+	 * Add a synset with the given hypernyms and return its id, which is one
+	 * more than the largest id so far. Its nouns become WordNet nouns. Takes
+	 * time proportional to the number of nouns and hypernyms, amortized over
+	 * many additions. Not safe to call concurrently with any other method.
+	 *
+	 * @param synset    space-separated nouns, as in the second column of the
+	 *                  synsets file
+	 * @param hypernyms ids of the new synset's hypernyms; at least one,
+	 *                  because only the root may have none
+	 * @throws java.lang.IllegalArgumentException if there are no hypernyms, or
+	 * the synset has no nouns or contains a comma or line terminator, any of
+	 * which would break its line in the synsets section of a snapshot.
+	 * @throws java.lang.IndexOutOfBoundsException if a hypernym is not a
+	 * synset id.
+	 */
+	public int addSynset(String synset, int... hypernyms) {
+		if (synset.trim().length() == 0 || synset.indexOf(',') >= 0
+			|| synset.indexOf('\n') >= 0 || synset.indexOf('\r') >= 0)
+			throw new IllegalArgumentException("Not a synset: " + synset);
+		// The new synset has no hyponyms, so it cannot be on a cycle, and it is
+		// a second root unless it has a hypernym.
+		if (hypernyms.length == 0)
+			throw new IllegalArgumentException(synset + " would be a root");
+		for (int h : hypernyms)
+			if (h < 0 || h >= size())
+				throw new IndexOutOfBoundsException(Integer.toString(h));
+		OnlineTopological order = order();
+		int id = paths.addVertex();
+		order.addVertex(id);
+		if (id == depth.length)
+			depth = Arrays.copyOf(depth, 2 * id);
+		depth[id] = INFINITY;
+		for (int h : hypernyms) {
+			order.addEdge(paths.graph(), id, h);
+			paths.addEdge(id, h);
+			depth[id] = Math.min(depth[id], depth[h] + 1);
+		}
+		addedSynsets.add(synset);
+		hyponyms = null;
+		reach = null;
+		for (String noun : synset.split(" "))
+			if (noun.length() > 0)
+				noun2ids.add(noun, id);
+		return id;
+	}
+
+	/**
+	 * Add an edge from a synset to one of its hypernyms. Uses an online
+	 * topological order to check for cycles, so takes time proportional to
+	 * the part of the graph between the two synsets in that order, plus the
+	 * hyponyms whose depth the edge shortens. Not safe to call concurrently
+	 * with any other method.
+	 *
+	 * @throws java.lang.IllegalArgumentException if the edge would create a
+	 * cycle or leave the WordNet without a root.
+	 * @throws java.lang.IndexOutOfBoundsException if either argument is not a
+	 * synset id.
+	 */
+	public void addHypernym(int hyponym, int hypernym) {
+		if (hyponym < 0 || hyponym >= size() || hypernym < 0
+			|| hypernym >= size()) {
+			String msg = hyponym + "->" + hypernym;
+			throw new IndexOutOfBoundsException(msg);
+		}
+		// The WordNet always has exactly one root, so giving it a hypernym
+		// would leave none.
+		Digraph g = paths.graph();
+		if (!g.adj(hyponym).iterator().hasNext()) {
+			String msg = hyponym + "->" + hypernym + " would leave no root";
+			throw new IllegalArgumentException(msg);
+		}
+		OnlineTopological order = order();
+		if (!order.addEdge(g, hyponym, hypernym)) {
+			String msg = hyponym + "->" + hypernym + " would create a cycle";
 			throw new IllegalArgumentException(msg);
 		}
+		paths.addEdge(hyponym, hypernym);
+		hyponyms = null;
+		reach = null;
+		// Pass any shorter path to the root down to the hyponym's hyponyms.
+		if (depth[hypernym] + 1 < depth[hyponym]) {
+			depth[hyponym] = depth[hypernym] + 1;
+			Queue<Integer> q = new Queue<Integer>();
+			q.enqueue(hyponym);
+			while (!q.isEmpty()) {
+				int w = q.dequeue();
+				for (int v : order.reverseAdj(w)) {
+					if (depth[w] + 1 < depth[v]) {
+						depth[v] = depth[w] + 1;
+						q.enqueue(v);
+					}
+				}
+			}
+		}
 	}
 
-	// Throw error if input does not have exactly one root.
-	private void detectRootedness(Digraph g, String hypernyms) {
-		// A root is a node with outdegree zero. A rooted DAG has exactly one
-		// such node.
-		int numRoots = 0;
-		for (int vertex = 0; vertex < g.V(); vertex++)
-			if (!g.adj(vertex).iterator().hasNext())
-				numRoots++;
-		if (numRoots != 1)
-			throw new IllegalArgumentException(hypernyms + " is not rooted.");
+	// The online topological order, made on first use from the ranks. It
+	// takes over the rank array. The first mutation pays time linear in the
+	// size of the WordNet to build it.
+	private OnlineTopological order() {
+		if (order == null) {
+			order = new OnlineTopological(paths.graph(), size(), rank);
+			rank = null;
+		}
+		return order;
+	}
+
+	// Position of synset v in a topological order of the WordNet: if v is a
+	// hyponym of w, then rank(v) < rank(w). Ranks are distinct but after
+	// mutations are not necessarily 0 through size() - 1.
+	int rank(int v) { return order == null ? rank[v] : order.ord(v); }
+
+	/**
+	 * Depth of a noun: the length of the shortest path from any of its synsets
+	 * to the root. Uses constant time per synset of the noun.
+	 * @throws java.lang.IllegalArgumentException if the noun is not in the
+	 * WordNet.
+	 */
+	public int depth(String noun) {
+		int min = INFINITY;
+		for (int id : synsetIds(noun))
+			min = Math.min(min, depth[id]);
+		return min;
 	}
 
 	/**
-	 * Returns all WordNet nouns.
+	 * Returns all WordNet nouns: those from the synsets file in sorted order,
+	 * followed by any added since.
 	 */
-	public Iterable<String> nouns() { return noun2ids.keySet(); }
+	public Iterable<String> nouns() { return noun2ids.nouns(); }
 
 	/**
-	 * Is the word a WordNet noun? Uses constant time.
+	 * Is the word a WordNet noun? Uses time logarithmic in the number of
+	 * nouns.
 	 */
-	public boolean isNoun(String word) { return noun2ids.containsKey(word); }
+	public boolean isNoun(String word) { return noun2ids.find(word) >= 0; }
 
-	// Convenience private method to throw IllegalArgumentException for
-	// distance() and sap().
-	private void areBothNouns(String nounA, String nounB) {
-		if (!isNoun(nounA) || !isNoun(nounB)) {
-			String msg = "One is not in the WordNet: " + nounA + " " + nounB;
+	/**
+	 * The gloss (third field of synsets.txt) of the synset with the given id,
+	 * or the empty string for a synset added by <code>addSynset()</code>.
+	 * Read from the mapped synsets file, through a small cache of recently
+	 * used synsets.
+	 * @throws java.lang.IndexOutOfBoundsException if id is not a synset id.
+	 */
+	public String gloss(int id) {
+		if (id < 0 || id >= size())
+			throw new IndexOutOfBoundsException(Integer.toString(id));
+		return id < id2synset.size() ? id2synset.gloss(id) : "";
+	}
+
+	/**
+	 * The glosses of every synset containing the noun, one per sense.
+	 * @throws java.lang.IllegalArgumentException if the noun is not in the
+	 * WordNet.
+	 */
+	public List<String> gloss(String noun) {
+		List<String> glosses = new ArrayList<String>();
+		for (int id : synsetIds(noun))
+			glosses.add(gloss(id));
+		return glosses;
+	}
+
+	/**
+	 * The handle of a noun, or -1 if it is not a WordNet noun. A handle is a
+	 * small nonnegative int that stands for the noun in the int overloads of
+	 * <code>distance()</code> and <code>sap()</code>, which skip looking up
+	 * and validating the noun on every query. Handles stay valid as the
+	 * WordNet grows. Uses time logarithmic in the number of nouns.
+	 */
+	public int nounId(String noun) { return noun2ids.find(noun); }
+
+	// Convenience private method to look up the synset ids of a noun or throw
+	// IllegalArgumentException for distance() and sap(). Do not modify the
+	// array, which is shared.
+	private int[] synsetIds(String noun) {
+		int handle = noun2ids.find(noun);
+		if (handle < 0) {
+			String msg = "Not in the WordNet: " + noun;
 			throw new IllegalArgumentException(msg);
 		}
+		return noun2ids.sharedIds(handle);
+	}
+
+	// The synset ids of the noun with a handle from nounId(), shared.
+	private int[] synsetIds(int handle) {
+		if (handle < 0 || handle >= noun2ids.size())
+			throw new IndexOutOfBoundsException("Noun handle " + handle);
+		return noun2ids.sharedIds(handle);
 	}
 
 	/**
@@ -136,8 +667,52 @@ public class WordNet {
 	 * not in the WordNet.
 	 */
 	public int distance(String nounA, String nounB) {
-		areBothNouns(nounA, nounB);
-		return paths.length(noun2ids.get(nounA), noun2ids.get(nounB));
+		return paths.length(synsetIds(nounA), synsetIds(nounB));
+	}
+
+	/**
+	 * Distance between the nouns with two handles from <code>nounId()</code>.
+	 * Runs in time linear with the size of the WordNet digraph, but without
+	 * looking up either noun.
+	 * @throws java.lang.IndexOutOfBoundsException if either is not a noun
+	 * handle.
+	 */
+	public int distance(int nounA, int nounB) {
+		return paths.length(synsetIds(nounA), synsetIds(nounB));
+	}
+
+	/**
+	 * Distances between every pair of nouns: <code>a[i][j]</code> equals
+	 * <code>distance(nouns[i], nouns[j])</code>. Runs one traversal per noun,
+	 * rather than two per pair as calling <code>distance()</code> for each
+	 * pair would.
+	 * @throws java.lang.IllegalArgumentException if any noun is not in the
+	 * WordNet.
+	 */
+	public int[][] distances(String[] nouns) {
+		int[][] sets = new int[nouns.length][];
+		for (int i = 0; i < nouns.length; i++)
+			sets[i] = synsetIds(nouns[i]);
+		return paths.lengths(sets);
+	}
+
+	/**
+	 * Distances between each noun in <code>a</code> and each noun in
+	 * <code>b</code>: <code>m[i][j]</code> equals <code>distance(a[i],
+	 * b[j])</code>. Nouns are traversed 64 at a time in bit-parallel batches,
+	 * so the number of traversals grows with the number of batches rather than
+	 * the number of pairs.
+	 * @throws java.lang.IllegalArgumentException if any noun is not in the
+	 * WordNet.
+	 */
+	public int[][] distanceMatrix(String[] a, String[] b) {
+		int[][] aSets = new int[a.length][];
+		int[][] bSets = new int[b.length][];
+		for (int i = 0; i < a.length; i++)
+			aSets[i] = synsetIds(a[i]);
+		for (int j = 0; j < b.length; j++)
+			bSets[j] = synsetIds(b[j]);
+		return paths.lengths(aSets, bSets);
 	}
 
 	/**
@@ -148,29 +723,282 @@ public class WordNet {
 	 * not in the WordNet.
 	 */
 	public String sap(String nounA, String nounB) {
-		areBothNouns(nounA, nounB);
-		return id2synset.get(paths.ancestor(noun2ids.get(nounA),
-											noun2ids.get(nounB)));
+		return synset(paths.ancestor(synsetIds(nounA), synsetIds(nounB)));
 	}
 
+	/**
+	 * A synset that is the common ancestor of the nouns with two handles from
+	 * <code>nounId()</code> in a shortest ancestral path, as by
+	 * <code>sap(String, String)</code>, but without looking up either noun.
+	 * @throws java.lang.IndexOutOfBoundsException if either is not a noun
+	 * handle.
+	 */
+	public String sap(int nounA, int nounB) {
+		return synset(paths.ancestor(synsetIds(nounA), synsetIds(nounB)));
+	}
+
+	/**
+	 * The distance between two nouns and a shortest common ancestor, as by
+	 * <code>distance()</code> and <code>sap()</code>, as returned by
+	 * <code>query()</code>.
+	 */
+	public static class Result {
+		private final int distance;
+		private final String ancestor;
+
+		Result(int distance, String ancestor) {
+			this.distance = distance;
+			this.ancestor = ancestor;
+		}
+
+		public int distance() { return distance; }
+		public String ancestor() { return ancestor; }
+		public String toString() {
+			return "distance = " + distance + ", ancestor = " + ancestor;
+		}
+	}
+
+	/**
+	 * The distance between two nouns if it is at most k, or -1 if it is
+	 * greater. Searches only the parts of the WordNet within distance k of
+	 * either noun, so small k costs much less than <code>distance()</code>.
+	 * @throws java.lang.IllegalArgumentException if either noun is not in the
+	 * WordNet.
+	 */
+	public int withinDistance(String nounA, String nounB, int k) {
+		return paths.lengthWithin(synsetIds(nounA), synsetIds(nounB), k);
+	}
+
+	/**
+	 * Both <code>distance()</code> and <code>sap()</code> of two nouns, from
+	 * one traversal instead of two.
+	 * @throws java.lang.IllegalArgumentException if either noun is not in the
+	 * WordNet.
+	 */
+	public Result query(String nounA, String nounB) {
+		SAP.Result r = paths.query(synsetIds(nounA), synsetIds(nounB));
+		return new Result(r.length(), synset(r.ancestor()));
+	}
+
+	/**
+	 * Is nounA a kind of nounB? True if some synset containing nounA is, or is
+	 * a hyponym (directly or indirectly) of, some synset containing nounB.
+	 * Looks up a precomputed reachability index, so takes time proportional to
+	 * the number of pairs of the nouns' synsets, times a tiny binary search,
+	 * however far apart they are. The first call after the WordNet is built,
+	 * loaded or modified builds the index, in time linear in the size of the
+	 * WordNet plus the size of the index; concurrent first calls build it
+	 * once.
+	 * @throws java.lang.IllegalArgumentException if either noun is not in the
+	 * WordNet.
+	 */
+	public boolean isA(String nounA, String nounB) {
+		ReachabilityIndex r = reach();
+		int[] a = synsetIds(nounA), b = synsetIds(nounB);
+		for (int v : a)
+			for (int w : b)
+				if (r.reaches(v, w))
+					return true;
+		return false;
+	}
+
+	// The reachability index, built by the first thread to need it.
+	private ReachabilityIndex reach() {
+		ReachabilityIndex r = reach;
+		if (r == null) {
+			synchronized (this) {
+				r = reach;
+				if (r == null)
+					reach = r = new ReachabilityIndex(paths.graph(), hyponyms());
+			}
+		}
+		return r;
+	}
+
+	// The reverse hypernym edges, rebuilt if the WordNet has been modified.
+	private Hyponyms hyponyms() {
+		Hyponyms h = hyponyms;
+		if (h == null)
+			hyponyms = h = new Hyponyms(paths.graph(), size());
+		return h;
+	}
+
+	/**
+	 * A noun and its distance from another, as returned by
+	 * <code>nearest()</code>.
+	 */
+	public static class Neighbor {
+		private final String noun;
+		private final int distance;
+
+		Neighbor(String noun, int distance) {
+			this.noun = noun;
+			this.distance = distance;
+		}
+
+		public String noun() { return noun; }
+		public int distance() { return distance; }
+		public String toString() { return noun + " " + distance; }
+	}
+
+	// Marks for nearest(), borrowed for each search. A mark equal to the current generation
+	// is set, so the arrays need not be cleared between searches.
+	private static class NearestScratch {
+		private final int[] up;       // reached going up, toward the root
+		private final int[] down;     // reached going down, after going up
+		private final int[] settled;  // reached either way
+		private int generation;
+
+		NearestScratch(int size) {
+			up = new int[size];
+			down = new int[size];
+			settled = new int[size];
+		}
+	}
+
+	/**
+	 * The k nouns nearest to a noun, excluding the noun itself, in order of
+	 * increasing <code>distance()</code> from it, with those distances. Fewer
+	 * than k if the WordNet has fewer other nouns. Nouns at the same distance
+	 * are ranked arbitrarily.
+	 * <p>
+	 * A shortest ancestral path goes up from one noun's synset to a common
+	 * ancestor and then down to the other's. So one breadth first search from
+	 * the noun's synsets, whose states are a synset plus whether the path has
+	 * turned down yet, reaches synsets in order of distance, and stops as soon
+	 * as k nouns have been found. The cost depends on k and the shape of the
+	 * graph near the noun, not on the number of nouns.
+	 * @throws java.lang.IllegalArgumentException if the noun is not in the
+	 * WordNet or k is negative.
+	 */
+	public List<Neighbor> nearest(String noun, int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("Negative k: " + k);
+		int[] sources = synsetIds(noun);
+		NearestScratch m = nearestScratch.borrow();
+		try {
+			return nearest(noun, k, sources, m);
+		}
+		finally {
+			nearestScratch.release(m);
+		}
+	}
+
+	private List<Neighbor> nearest(String noun, int k, int[] sources,
+								   NearestScratch m) {
+		Digraph g = paths.graph();
+		Hyponyms down = hyponyms();
+		int gen = ++m.generation;
+		if (gen == Integer.MAX_VALUE) { // Start over rather than wrap around.
+			Arrays.fill(m.up, 0);
+			Arrays.fill(m.down, 0);
+			Arrays.fill(m.settled, 0);
+			m.generation = gen = 1;
+		}
+
+		List<Neighbor> nearest = new ArrayList<Neighbor>();
+		HashSet<String> found = new HashSet<String>();
+		found.add(noun);
+		// States are 2 * synset for going up and 2 * synset + 1 for down. The
+		// states at distance d are queue[levelStart] up to queue[levelEnd].
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		for (int s : sources) {
+			if (m.up[s] != gen) {
+				m.up[s] = gen;
+				queue = push(queue, tail++, 2 * s);
+			}
+		}
+		int d = 0, levelEnd = tail;
+		while (head < tail && nearest.size() < k) {
+			if (head == levelEnd) {
+				d++;
+				levelEnd = tail;
+			}
+			int state = queue[head++];
+			int v = state >>> 1;
+			if (m.settled[v] != gen) {
+				m.settled[v] = gen;
+				for (String n : synset(v).split(" ")) {
+					if (nearest.size() < k && n.length() > 0 && found.add(n))
+						nearest.add(new Neighbor(n, d));
+				}
+			}
+			if ((state & 1) == 0) {
+				for (int w : g.adj(v)) {
+					if (m.up[w] != gen) {
+						m.up[w] = gen;
+						queue = push(queue, tail++, 2 * w);
+					}
+				}
+			}
+			for (int i = down.first(v); i < down.first(v + 1); i++) {
+				int w = down.get(i);
+				// Reaching w going up already covers every path down from it.
+				if (m.down[w] != gen && m.up[w] != gen) {
+					m.down[w] = gen;
+					queue = push(queue, tail++, 2 * w + 1);
+				}
+			}
+		}
+		return nearest;
+	}
+
+	// Set a[i] = x, growing a if needed.
+	private static int[] push(int[] a, int i, int x) {
+		if (i == a.length)
+			a = Arrays.copyOf(a, 2 * i);
+		a[i] = x;
+		return a;
+	}
+
+	/**
+	 * Counters and latency histograms for this WordNet's queries, which are
+	 * answered by its shortest ancestral path engine.
+	 */
+	public SAPMetrics metrics() { return paths.metrics(); }
+
 	// for unit testing of this class. Usage:
-	// java WordNet synsets.csv hypernyms.csv
-	public static void main(String[] args) {
-		WordNet wn = new WordNet(args[0], args[1]);
+	// java WordNet synsets.csv hypernyms.csv [snapshot.bin]
+	// java WordNet snapshot.bin
+	// With three arguments, also save a snapshot of the WordNet. Any of these
+	// also accepts the QueryPipeline options to answer a file of noun pairs in
+	// parallel instead of reading them from standard input.
+	public static void main(String[] args) throws Exception {
+		QueryPipeline batch = QueryPipeline.parse(args);
+		args = batch.args();
+		final WordNet wn;
+		if (args.length == 1)
+			wn = load(Paths.get(args[0]));
+		else {
+			wn = new WordNet(args[0], args[1]);
+			if (args.length > 2)
+				wn.save(Paths.get(args[2]));
+		}
+		wn.metrics().register("WordNet");
+		if (batch.enabled()) {
+			batch.run(new QueryPipeline.Handler() {
+				public String answer(String query) {
+					String[] vw = query.trim().split("\\s+");
+					return WordNet.answer(wn, vw[0], vw[1]);
+				}
+			});
+			System.err.println(wn.metrics().snapshot());
+			return;
+		}
 		while (!StdIn.isEmpty()) {
 			String v = StdIn.readString();
 			String w = StdIn.readString();
-			if (!wn.isNoun(v)) {
-				StdOut.println(v + " not in the word net");
-				continue;
-			}
-			if (!wn.isNoun(w)) {
-				StdOut.println(w + " not in the word net");
-				continue;
-			}
-			int distance = wn.distance(v, w);
-			String ancestor = wn.sap(v, w);
-			StdOut.printf("distance = %d, ancestor = %s\n", distance, ancestor);
+			StdOut.println(answer(wn, v, w));
 		}
 	}
+
+	// The test client's output for one pair of nouns.
+	private static String answer(WordNet wn, String v, String w) {
+		if (!wn.isNoun(v))
+			return v + " not in the word net";
+		if (!wn.isNoun(w))
+			return w + " not in the word net";
+		return wn.query(v, w).toString();
+	}
 }
@@ -0,0 +1,203 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac WordNetBench.java
+ * Execution:    java WordNetBench [-V n] [-depth d] [-fanin f] [-seed s]
+ *                    [-warmup n] [-iterations n] [-seconds t] [name ...]
+ * Dependencies: DAGGenerator.java WordNet.java SAP.java Outcast.java
+ *               CachingBFS.java Digraph.java
+ *
+ * Microbenchmarks for WordNet, SAP, Outcast and CachingBFS on a synthetic
+ * DAG, so that performance work can be measured without the real WordNet.
+ *
+ ************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A small benchmark harness in the style of JMH: each benchmark runs a few
+ * untimed warmup iterations, so the JIT compiler settles, then several timed
+ * iterations of a fixed duration, and reports the mean and standard deviation
+ * of the time per operation across iterations. Results are folded into a
+ * sink that is printed at the end, so the JIT cannot discard the work.
+ * <p>
+ * The benchmarks, which may be selected by name on the command line:
+ * <ul>
+ * <li><code>construct</code>: build a WordNet from the generated files.
+ * <li><code>length</code>, <code>ancestor</code>: SAP queries between two
+ *     random synsets.
+ * <li><code>lengthSet</code>, <code>ancestorSet</code>: SAP queries between
+ *     two random sets of three synsets.
+ * <li><code>outcast</code>: the outcast of a random set of eight nouns.
+ * <li><code>bfsReuse</code>, <code>bfsFresh</code>: one CachingBFS from a
+ *     random synset, with cached arrays or with newly allocated ones.
+ * </ul>
+ * The DAG comes from <code>DAGGenerator</code>, so a given seed always gives
+ * the same graph and the same queries.
+ *
+ * @author William Schwartz
+ */
+public class WordNetBench {
+	private static final int QUERIES = 1 << 12; // Random inputs per benchmark.
+	private static long sink;                   // Results, so work isn't dead.
+
+	/**
+	 * One benchmark: a named operation, run on its i-th precomputed input.
+	 */
+	private abstract static class Benchmark {
+		final String name;
+
+		Benchmark(String name) { this.name = name; }
+
+		// Do one operation and return something derived from its result.
+		abstract long run(int i);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int V = 82115, depth = 18, fanIn = 2, warmup = 3, iterations = 5;
+		long seed = 1;
+		double seconds = 1;
+		List<String> selected = new ArrayList<String>();
+		for (int a = 0; a < args.length; a++) {
+			if (args[a].equals("-V"))
+				V = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-depth"))
+				depth = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-fanin"))
+				fanIn = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-seed"))
+				seed = Long.parseLong(args[++a]);
+			else if (args[a].equals("-warmup"))
+				warmup = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-iterations"))
+				iterations = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-seconds"))
+				seconds = Double.parseDouble(args[++a]);
+			else if (args[a].startsWith("-"))
+				throw new IllegalArgumentException("Unknown option " + args[a]);
+			else
+				selected.add(args[a]);
+		}
+
+		final DAGGenerator dag = new DAGGenerator(V, depth, fanIn, seed);
+		File synsets = File.createTempFile("bench", "-synsets.txt");
+		File hypernyms = File.createTempFile("bench", "-hypernyms.txt");
+		synsets.deleteOnExit();
+		hypernyms.deleteOnExit();
+		dag.write(synsets.getPath(), hypernyms.getPath());
+		final String synsetsFile = synsets.getPath();
+		final String hypernymsFile = hypernyms.getPath();
+		System.err.printf("V = %d, depth = %d, fan-in = %d, seed = %d\n",
+						  V, depth, fanIn, seed);
+
+		final Digraph G = dag.digraph();
+		final SAP sap = new SAP(G);
+		final Outcast outcast = new Outcast(new WordNet(synsetsFile,
+														hypernymsFile));
+		final CachingBFS.CachedArrays cache = new CachingBFS.CachedArrays(V);
+		Random random = new Random(seed);
+		final int[] vs = new int[QUERIES], ws = new int[QUERIES];
+		final int[][] vSets = new int[QUERIES][3], wSets = new int[QUERIES][3];
+		final String[][] nounSets = new String[QUERIES][8];
+		for (int i = 0; i < QUERIES; i++) {
+			vs[i] = random.nextInt(V);
+			ws[i] = random.nextInt(V);
+			for (int j = 0; j < 3; j++) {
+				vSets[i][j] = random.nextInt(V);
+				wSets[i][j] = random.nextInt(V);
+			}
+			for (int j = 0; j < 8; j++)
+				nounSets[i][j] = "noun" + random.nextInt(V);
+		}
+
+		Benchmark[] all = {
+			new Benchmark("construct") {
+				long run(int i) {
+					return new WordNet(synsetsFile, hypernymsFile).isNoun("noun0")
+						? 1 : 0;
+				}
+			},
+			new Benchmark("length") {
+				long run(int i) { return sap.length(vs[i], ws[i]); }
+			},
+			new Benchmark("ancestor") {
+				long run(int i) { return sap.ancestor(vs[i], ws[i]); }
+			},
+			new Benchmark("lengthSet") {
+				long run(int i) { return sap.length(vSets[i], wSets[i]); }
+			},
+			new Benchmark("ancestorSet") {
+				long run(int i) { return sap.ancestor(vSets[i], wSets[i]); }
+			},
+			new Benchmark("outcast") {
+				long run(int i) { return outcast.outcast(nounSets[i]).length(); }
+			},
+			new Benchmark("bfsReuse") {
+				long run(int i) {
+					return new CachingBFS(G, vs[i], cache).distTo(0);
+				}
+			},
+			new Benchmark("bfsFresh") {
+				long run(int i) {
+					return new CachingBFS(G, vs[i], null).distTo(0);
+				}
+			},
+		};
+
+		System.err.printf("%-12s %14s %12s %8s\n", "benchmark", "ns/op",
+						  "+/- ns/op", "ops");
+		for (Benchmark b : all) {
+			if (!selected.isEmpty() && !selected.contains(b.name))
+				continue;
+			for (int it = 0; it < warmup; it++)
+				iteration(b, seconds);
+			double[] nsPerOp = new double[iterations];
+			long ops = 0;
+			for (int it = 0; it < iterations; it++) {
+				long[] result = iteration(b, seconds);
+				nsPerOp[it] = (double) result[1] / result[0];
+				ops += result[0];
+			}
+			System.err.printf("%-12s %14.1f %12.1f %8d\n", b.name,
+							  mean(nsPerOp), stddev(nsPerOp), ops);
+		}
+		System.err.println("(sink " + sink + ")");
+	}
+
+	// Run a benchmark for about the given time. Returns the number of
+	// operations and the nanoseconds they took. The clock is read once per
+	// operation only for slow benchmarks; fast ones are timed in batches.
+	private static long[] iteration(Benchmark b, double seconds) {
+		long budget = (long) (seconds * 1e9);
+		long start = System.nanoTime(), elapsed = 0, ops = 0, acc = 0;
+		int batch = 1;
+		while (elapsed < budget) {
+			for (int k = 0; k < batch; k++)
+				acc += b.run((int) (ops++ & (QUERIES - 1)));
+			elapsed = System.nanoTime() - start;
+			if (batch < 1024 && elapsed < budget / 1000)
+				batch *= 2;
+		}
+		sink += acc;
+		return new long[] {ops, elapsed};
+	}
+
+	private static double mean(double[] a) {
+		double sum = 0;
+		for (double x : a)
+			sum += x;
+		return sum / a.length;
+	}
+
+	private static double stddev(double[] a) {
+		if (a.length < 2)
+			return 0;
+		double m = mean(a), sum = 0;
+		for (double x : a)
+			sum += (x - m) * (x - m);
+		return Math.sqrt(sum / (a.length - 1));
+	}
+}
@@ -0,0 +1,175 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac WordNetHolder.java
+ * Dependencies: WordNet.java WordNetHolderMBean.java
+ *
+ * Hold the current WordNet for a long-running service, and replace it with
+ * a newly loaded one without stopping queries.
+ *
+ ************************************************************************/
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A reference to the current <code>WordNet</code> that can be swapped for a
+ * new one built in the background.
+ * <p>
+ * Queries call <code>get()</code> and then query the instance it returns. A
+ * reload builds a whole new WordNet (from CSV files or a snapshot) on a
+ * background thread, while queries go on against the old one, and then
+ * publishes it with one atomic write. Queries that already hold the old
+ * instance finish on it; every <code>get()</code> after the write returns the
+ * new one. Nothing is locked, so queries never wait for a reload. The old
+ * instance is garbage once its last query finishes.
+ * <p>
+ * A WordNet reads its synsets and glosses from a private copy of the file it
+ * was built from, so a reload may read files that were rewritten in place:
+ * the old instance keeps answering from its own copy.
+ * <p>
+ * Reloads run one at a time, in the order requested. A reload that fails
+ * leaves the current WordNet in place and fails its future.
+ * <p>
+ * Published WordNets must not be modified with <code>addSynset()</code> or
+ * <code>addHypernym()</code> while queries may be running on them.
+ *
+ * @author William Schwartz
+ */
+public class WordNetHolder implements WordNetHolderMBean, AutoCloseable {
+	private final AtomicReference<Published> current;
+	private final ExecutorService loader;
+	private final LongAdder reloads = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder reloadNanos = new LongAdder();
+	private volatile long lastReloadNanos;
+
+	// A WordNet and its version, published together.
+	private static class Published {
+		private final WordNet wordnet;
+		private final long version;
+		private final long publishedAt;
+
+		Published(WordNet wordnet, long version) {
+			this.wordnet = wordnet;
+			this.version = version;
+			this.publishedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Hold an initial WordNet, which is version 1.
+	 */
+	public WordNetHolder(WordNet initial) {
+		if (initial == null)
+			throw new IllegalArgumentException("No WordNet");
+		current = new AtomicReference<Published>(new Published(initial, 1));
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WordNetHolder reload");
+				t.setDaemon(true); // Don't keep the JVM alive for reloads.
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * The current WordNet. Use one instance for all the parts of a request
+	 * that must agree with each other.
+	 */
+	public WordNet get() { return current.get().wordnet; }
+
+	/**
+	 * Build a WordNet from synsets and hypernyms CSV files in the background
+	 * and publish it. The future gives the new WordNet, or fails with the
+	 * reason the files were rejected.
+	 */
+	public Future<WordNet> reload(final String synsets, final String hypernyms) {
+		return submit(new Callable<WordNet>() {
+			public WordNet call() { return new WordNet(synsets, hypernyms); }
+		});
+	}
+
+	/**
+	 * Load a WordNet snapshot in the background and publish it.
+	 */
+	public Future<WordNet> reload(final Path snapshot) {
+		return submit(new Callable<WordNet>() {
+			public WordNet call() throws Exception {
+				return WordNet.load(snapshot);
+			}
+		});
+	}
+
+	// Build and then publish a WordNet on the loader thread.
+	private Future<WordNet> submit(final Callable<WordNet> build) {
+		return loader.submit(new Callable<WordNet>() {
+			public WordNet call() throws Exception {
+				long start = System.nanoTime();
+				WordNet wordnet;
+				try {
+					wordnet = build.call();
+				}
+				catch (Exception e) {
+					failures.increment();
+					throw e;
+				}
+				long nanos = System.nanoTime() - start;
+				// Only this thread publishes, so a plain set is atomic enough.
+				current.set(new Published(wordnet, current.get().version + 1));
+				lastReloadNanos = nanos;
+				reloadNanos.add(nanos);
+				reloads.increment();
+				return wordnet;
+			}
+		});
+	}
+
+	/**
+	 * Publish these metrics on the platform MBean server under
+	 * <code>WordNet:type=WordNetHolder,name=</code><em>name</em>, replacing
+	 * any already there. Returns the name registered.
+	 */
+	public ObjectName register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(
+				"WordNet:type=WordNetHolder,name=" + ObjectName.quote(name));
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(this, objectName);
+			return objectName;
+		}
+		catch (JMException e) {
+			throw new IllegalArgumentException("Could not register " + name, e);
+		}
+	}
+
+	/**
+	 * Stop accepting reloads. One already running still publishes.
+	 */
+	public void close() { loader.shutdown(); }
+
+	/* WordNetHolderMBean */
+
+	public long getVersion() { return current.get().version; }
+
+	public long getReloads() { return reloads.sum(); }
+
+	public long getFailedReloads() { return failures.sum(); }
+
+	public double getLastReloadMillis() { return lastReloadNanos / 1e6; }
+
+	public double getTotalReloadMillis() { return reloadNanos.sum() / 1e6; }
+
+	public long getPublishedAt() { return current.get().publishedAt; }
+}
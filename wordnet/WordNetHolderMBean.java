@@ -0,0 +1,36 @@
+/*************************************************************************
+ * Author: William Schwartz
+ * Compilation:  javac WordNetHolderMBean.java
+ * Dependencies: none
+ *
+ * JMX management interface for WordNetHolder.
+ *
+ ************************************************************************/
+
+/**
+ * The reload metrics of a <code>WordNetHolder</code> that are published
+ * through JMX.
+ *
+ * @author William Schwartz
+ */
+public interface WordNetHolderMBean {
+	/** Version of the published WordNet: 1 for the first, then one more per
+	 * successful reload. */
+	long getVersion();
+
+	/** Number of successful reloads. */
+	long getReloads();
+
+	/** Number of reloads that failed, leaving the old WordNet in place. */
+	long getFailedReloads();
+
+	/** How long the last successful reload took to build, in milliseconds. */
+	double getLastReloadMillis();
+
+	/** Total time spent building successful reloads, in milliseconds. */
+	double getTotalReloadMillis();
+
+	/** When the current WordNet was published, in milliseconds since the
+	 * epoch. */
+	long getPublishedAt();
+}